@@ -0,0 +1,13 @@
+package org.saulis;
+
+public class BuildParameters {
+    public static final String PROJECT = "gerrit.change.project";
+    public static final String CHANGE_NUMBER = "gerrit.change.number";
+    public static final String PATCHSET_NUMBER = "gerrit.patchset.number";
+    public static final String REVISION = "gerrit.patchset.revision";
+    public static final String OWNER = "gerrit.change.owner";
+    public static final String TOPIC = "gerrit.change.topic";
+    public static final String CHAIN_CHANGES = "gerrit.chain.changes";
+    public static final String CHAIN_PATCHSETS = "gerrit.chain.patchsets";
+    public static final String TRIGGER_ID = "gerrit.trigger.id";
+}
@@ -0,0 +1,95 @@
+package org.saulis;
+
+import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records verified patch sets and reports build results back to Gerrit.
+ */
+class GerritBuildListener extends BuildServerAdapter {
+
+    private final GerritVerifiedPatchSets verifiedPatchSets;
+    private final GerritResultReporter resultReporter;
+
+    public GerritBuildListener(GerritVerifiedPatchSets verifiedPatchSets, GerritResultReporter resultReporter) {
+        this.verifiedPatchSets = verifiedPatchSets;
+        this.resultReporter = resultReporter;
+    }
+
+    @Override
+    public void buildFinished(@NotNull SRunningBuild build) {
+        Map<String, String> parameters = build.getBuildPromotion().getCustomParameters();
+
+        if(!parameters.containsKey(BuildParameters.REVISION)) {
+            return;
+        }
+
+        boolean successful = build.getBuildStatus().isSuccessful();
+
+        if(successful) {
+            verifiedPatchSets.addVerified(build.getBuildTypeId(),
+                    parameters.get(BuildParameters.PROJECT),
+                    parameters.get(BuildParameters.CHANGE_NUMBER),
+                    parameters.get(BuildParameters.PATCHSET_NUMBER),
+                    parameters.get(BuildParameters.REVISION));
+        }
+
+        BuildTriggerDescriptor trigger = getTrigger(build, parameters.get(BuildParameters.TRIGGER_ID));
+
+        if(trigger != null && Boolean.parseBoolean(trigger.getParameters().get(Parameters.REPORT_RESULTS))) {
+            String message = String.format("Build %s #%s %s.", build.getBuildType().getFullName(), build.getBuildNumber(),
+                    successful ? "succeeded" : "failed");
+
+            GerritConnection connection = GerritConnection.fromTriggerParameters(trigger.getParameters());
+
+            resultReporter.report(connection, new GerritReview(parameters.get(BuildParameters.CHANGE_NUMBER),
+                    parameters.get(BuildParameters.PATCHSET_NUMBER), successful, message));
+
+            // The build of a chain tip covered the patch sets below it as well.
+            for(String[] ancestor : getChainPatchSets(parameters.get(BuildParameters.CHAIN_PATCHSETS))) {
+                resultReporter.report(connection, new GerritReview(ancestor[0], ancestor[1], successful, message));
+            }
+        }
+    }
+
+    private List<String[]> getChainPatchSets(String value) {
+        List<String[]> patchSets = new ArrayList<String[]>();
+
+        if(value == null) {
+            return patchSets;
+        }
+
+        for(String pair : value.trim().split("\\s+")) {
+            String[] numbers = pair.split(",");
+
+            if(numbers.length == 2) {
+                patchSets.add(numbers);
+            }
+        }
+
+        return patchSets;
+    }
+
+    private BuildTriggerDescriptor getTrigger(SRunningBuild build, String triggerId) {
+        SBuildType buildType = build.getBuildType();
+
+        if(triggerId == null || buildType == null) {
+            return null;
+        }
+
+        for(BuildTriggerDescriptor trigger : buildType.getBuildTriggersCollection()) {
+            if(triggerId.equals(trigger.getId())) {
+                return trigger;
+            }
+        }
+
+        return null;
+    }
+}
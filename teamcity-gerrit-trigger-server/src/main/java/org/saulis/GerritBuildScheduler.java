@@ -0,0 +1,161 @@
+package org.saulis;
+
+import jetbrains.buildServer.log.Loggers;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Orders new patch sets by priority and project weight, deferring the ones over the per-project limit.
+ */
+class GerritBuildScheduler {
+
+    private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritBuildScheduler.class);
+
+    static final String PRIORITY_AGE = "age";
+    static final String PRIORITY_FIRST_PATCH_SET = "firstPatchSet";
+
+    // Builds are remembered long enough to cover the polling interval of any trigger.
+    private static final long QUEUED_BUILD_RETENTION_MILLIS = 10 * 60 * 1000L;
+
+    private final Map<String, Long> lastScheduled = new HashMap<String, Long>();
+    private final LinkedList<QueuedBuild> queuedBuilds = new LinkedList<QueuedBuild>();
+
+    public List<GerritPatchSet> schedule(GerritPolledTriggerContext context, List<GerritPatchSet> newPatchSets, long now) {
+        Map<String, GerritPatchSet> candidatesByRef = new LinkedHashMap<String, GerritPatchSet>();
+        for(GerritPatchSet p : context.getDeferredPatchSets()) {
+            candidatesByRef.put(p.getRef(), p);
+        }
+        for(GerritPatchSet p : newPatchSets) {
+            candidatesByRef.put(p.getRef(), p);
+        }
+
+        List<GerritPatchSet> candidates = new ArrayList<GerritPatchSet>(candidatesByRef.values());
+
+        Collections.sort(candidates, createComparator(context.getPriority()));
+
+        Map<String, LinkedList<GerritPatchSet>> patchSetsByProject = new LinkedHashMap<String, LinkedList<GerritPatchSet>>();
+        for(GerritPatchSet p : candidates) {
+            if(!patchSetsByProject.containsKey(p.getProject())) {
+                patchSetsByProject.put(p.getProject(), new LinkedList<GerritPatchSet>());
+            }
+
+            patchSetsByProject.get(p.getProject()).add(p);
+        }
+
+        int maxBuildsPerPoll = context.getMaxBuildsPerPoll();
+        Map<String, Integer> weights = context.getProjectWeights();
+        Map<String, Integer> scheduledCounts = getQueuedCountsSinceLastPoll(context.getTriggerKey(), now);
+        List<GerritPatchSet> scheduled = new ArrayList<GerritPatchSet>();
+        List<GerritPatchSet> deferred = new ArrayList<GerritPatchSet>();
+
+        // Round robin between projects, taking <weight> patch sets from each project per round.
+        boolean hasRemaining = true;
+        while(hasRemaining) {
+            hasRemaining = false;
+
+            for(Map.Entry<String, LinkedList<GerritPatchSet>> entry : patchSetsByProject.entrySet()) {
+                String project = entry.getKey();
+                LinkedList<GerritPatchSet> projectPatchSets = entry.getValue();
+                int weight = getWeight(weights, project);
+
+                for(int i = 0; i < weight && !projectPatchSets.isEmpty(); i++) {
+                    int count = scheduledCounts.containsKey(project) ? scheduledCounts.get(project) : 0;
+
+                    if(maxBuildsPerPoll > 0 && count >= maxBuildsPerPoll * weight) {
+                        deferred.addAll(projectPatchSets);
+                        projectPatchSets.clear();
+                        break;
+                    }
+
+                    scheduled.add(projectPatchSets.removeFirst());
+                    scheduledCounts.put(project, count + 1);
+                }
+
+                hasRemaining |= !projectPatchSets.isEmpty();
+            }
+        }
+
+        if(!deferred.isEmpty()) {
+            LOG.debug(String.format("GERRIT: Deferring %s build(s) to the next poll.", deferred.size()));
+        }
+        context.setDeferredPatchSets(deferred);
+
+        return scheduled;
+    }
+
+    /**
+     * Records a build added to the queue, so that it's counted against the limits of the other triggers.
+     */
+    public synchronized void addQueuedBuild(GerritPolledTriggerContext context, GerritPatchSet p, long now) {
+        queuedBuilds.addLast(new QueuedBuild(context.getTriggerKey(), p.getProject(), now));
+
+        while(!queuedBuilds.isEmpty() && queuedBuilds.getFirst().queuedAt < now - QUEUED_BUILD_RETENTION_MILLIS) {
+            queuedBuilds.removeFirst();
+        }
+    }
+
+    private synchronized Map<String, Integer> getQueuedCountsSinceLastPoll(String triggerKey, long now) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Long since = lastScheduled.put(triggerKey, now);
+
+        if(since == null) {
+            return counts;
+        }
+
+        // The trigger's own builds from the previous poll were counted then.
+        for(QueuedBuild build : queuedBuilds) {
+            if(build.queuedAt >= since && !build.triggerKey.equals(triggerKey)) {
+                counts.put(build.project, counts.containsKey(build.project) ? counts.get(build.project) + 1 : 1);
+            }
+        }
+
+        return counts;
+    }
+
+    private int getWeight(Map<String, Integer> weights, String project) {
+        if(weights.containsKey(project)) {
+            return Math.max(1, weights.get(project));
+        }
+
+        return 1;
+    }
+
+    private Comparator<GerritPatchSet> createComparator(final String priority) {
+        return new Comparator<GerritPatchSet>() {
+            public int compare(GerritPatchSet p1, GerritPatchSet p2) {
+                // Trivial changes are always built last.
+                if(p1.isTrivial() != p2.isTrivial()) {
+                    return p1.isTrivial() ? 1 : -1;
+                }
+
+                if(PRIORITY_FIRST_PATCH_SET.equals(priority)) {
+                    boolean first1 = "1".equals(p1.getPatchSetNumber());
+                    boolean first2 = "1".equals(p2.getPatchSetNumber());
+
+                    if(first1 != first2) {
+                        return first1 ? -1 : 1;
+                    }
+                }
+
+                if(PRIORITY_AGE.equals(priority)) {
+                    return p1.getCreatedOn().compareTo(p2.getCreatedOn());
+                }
+
+                return 0;
+            }
+        };
+    }
+
+    private static class QueuedBuild {
+        private final String triggerKey;
+        private final String project;
+        private final long queuedAt;
+
+        private QueuedBuild(String triggerKey, String project, long queuedAt) {
+            this.triggerKey = triggerKey;
+            this.project = project;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.saulis;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonStreamParser;
 import com.jcraft.jsch.ChannelExec;
@@ -10,62 +11,402 @@ import jetbrains.buildServer.buildTriggers.PolledTriggerContext;
 import jetbrains.buildServer.log.Loggers;
 import org.apache.log4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.*;
 
 public class GerritClient {
 
     private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritClient.class);
-    private final JSch jsch;
+    private static final int PAGE_SIZE = 10;
+    private static final int MAX_PAGES = 10;
+    private static final long JOURNAL_FRESHNESS_MILLIS = 10 * 1000L;
+    private static final long FOLLOWER_MAX_WAIT_MILLIS = 60 * 1000L;
+    private final GerritSessionPool sessionPool;
+    private final GerritHostHealth hostHealth;
+    private final GerritHostSelector hostSelector;
+    private final GerritEventJournal journal;
+    private final GerritPollerLease lease;
+    private final GerritPollRecorder recorder;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final GerritReplicaOverlap replicaOverlap = new GerritReplicaOverlap();
+    private final Random random = new Random();
+    private int pollsInFlight;
+    private boolean closed;
 
     public GerritClient(JSch jsch) {
-        this.jsch = jsch;
+        this(new GerritSessionPool(jsch), null, null, null);
+    }
+
+    GerritClient(GerritSessionPool sessionPool, GerritEventJournal journal, GerritPollerLease lease,
+                 GerritPollRecorder recorder) {
+        this(sessionPool, new GerritHostHealth(), new GerritHostSelector(), journal, lease, recorder, 2, 500L);
+    }
+
+    GerritClient(GerritSessionPool sessionPool, GerritHostHealth hostHealth, GerritHostSelector hostSelector,
+                 GerritEventJournal journal, GerritPollerLease lease, int maxRetries, long retryBackoffMillis) {
+        this(sessionPool, hostHealth, hostSelector, journal, lease, null, maxRetries, retryBackoffMillis);
+    }
+
+    GerritClient(GerritSessionPool sessionPool, GerritHostHealth hostHealth, GerritHostSelector hostSelector,
+                 GerritEventJournal journal, GerritPollerLease lease, GerritPollRecorder recorder,
+                 int maxRetries, long retryBackoffMillis) {
+        this.sessionPool = sessionPool;
+        this.hostHealth = hostHealth;
+        this.hostSelector = hostSelector;
+        this.journal = journal;
+        this.lease = lease;
+        this.recorder = recorder;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
     }
 
     public List<GerritPatchSet> getNewPatchSets(GerritPolledTriggerContext context) {
+        if(!beginPoll()) {
+            LOG.debug("GERRIT: Skipping poll, the server is shutting down.");
+            return new ArrayList<GerritPatchSet>();
+        }
+
+        try {
+            List<GerritPatchSet> patchSets = poll(context);
+
+            if(context.hasTimestamp()) {
+                replicaOverlap.addReported(context.getTriggerKey(), patchSets, context.getTimestamp());
+            }
+
+            return patchSets;
+        } finally {
+            endPoll();
+        }
+    }
+
+    private synchronized boolean beginPoll() {
+        if(closed) {
+            return false;
+        }
+
+        pollsInFlight++;
+        return true;
+    }
+
+    private synchronized void endPoll() {
+        pollsInFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Stops new polls and waits for the ones in flight to finish, at most <code>timeoutMillis</code>.
+     * Returns false if some are still running.
+     */
+    public synchronized boolean shutdown(long timeoutMillis) {
+        closed = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        try {
+            while(pollsInFlight > 0 && System.currentTimeMillis() < deadline) {
+                wait(deadline - System.currentTimeMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return pollsInFlight == 0;
+    }
+
+    private List<GerritPatchSet> poll(GerritPolledTriggerContext context) {
+        List<GerritPatchSet> patchSets = new ArrayList<GerritPatchSet>();
+        String host = context.getHost();
+
+        if(!context.hasTimestamp()) {
+            // First poll, only patch sets created from now on will be built.
+            context.updateTimestampIfNewer(new Date());
+            return patchSets;
+        }
+
+        GerritEventJournal.Replay replay = replayJournal(context, patchSets);
+
+        if(isPolledWithin(replay, JOURNAL_FRESHNESS_MILLIS)) {
+            return patchSets;
+        }
+
+        long leaseEpoch = -1;
+        if(lease != null) {
+            leaseEpoch = lease.tryAcquire(host);
+
+            // Another node is polling the host and publishing the results to the journal. If it hasn't queried
+            // this scope lately (e.g. the trigger only exists on this node), querying Gerrit here instead.
+            if(leaseEpoch < 0 && isPolledWithin(replay, FOLLOWER_MAX_WAIT_MILLIS)) {
+                return patchSets;
+            }
+        }
+
+        // Timestamp is read only once, so that a retry after a partially read response doesn't skip any rows.
+        Date timestamp = context.getTimestamp();
+
+        Set<String> failedReplicas = new HashSet<String>();
+        int attempt = 0;
+
+        while(true) {
+            String queryHost = hostSelector.select(host, context.getReplicaHosts(), hostHealth);
+
+            if(failedReplicas.contains(queryHost)) {
+                queryHost = host;
+            }
+
+            boolean replica = context.getReplicaHosts().contains(queryHost);
+
+            if(!hostHealth.isAvailable(queryHost)) {
+                LOG.debug("GERRIT: Skipping poll, " + queryHost + " has been failing.");
+                return patchSets;
+            }
+
+            try {
+                long started = System.currentTimeMillis();
+                queryPatchSets(context, queryHost, timestamp, patchSets, leaseEpoch);
+                hostSelector.recordLatency(queryHost, System.currentTimeMillis() - started);
+                hostHealth.reportSuccess(queryHost);
+
+                return patchSets;
+            }
+            catch (Exception e) {
+                GerritErrorType errorType = GerritErrorType.classify(e);
+
+                // Any failure takes a replica out of the rotation, also ones that would fail the same way again
+                // (e.g. a key the replica doesn't accept). The query fails over to another replica or to the
+                // primary right away.
+                if(replica) {
+                    LOG.warn(String.format("Gerrit trigger failed while getting patch sets from replica %s (%s: %s), failing over.",
+                            queryHost, errorType, e.getMessage()));
+                    hostHealth.reportFailure(queryHost);
+                    failedReplicas.add(queryHost);
+                    continue;
+                }
+
+                attempt++;
+
+                if(errorType.isTransient() && attempt <= maxRetries) {
+                    long backoff = getRetryBackoffMillis(attempt);
+                    LOG.warn(String.format("Gerrit trigger failed while getting patch sets from %s (%s: %s), retrying in %s ms.",
+                            queryHost, errorType, e.getMessage(), backoff));
+
+                    if(sleep(backoff)) {
+                        continue;
+                    }
+                }
+
+                LOG.error(String.format("Gerrit trigger failed while getting patch sets from %s (%s).", queryHost, errorType), e);
+
+                if(errorType.isTransient()) {
+                    hostHealth.reportFailure(queryHost);
+                }
+
+                return patchSets;
+            }
+        }
+    }
+
+    /**
+     * Catches up from the journal if it covers the time since the last poll of the trigger.
+     * Returns null if the journal can't be used.
+     */
+    private GerritEventJournal.Replay replayJournal(GerritPolledTriggerContext context, List<GerritPatchSet> patchSets) {
+        // File lists are not journaled, so they can't be used for path filtering.
+        if(journal == null || context.hasPathFilter()) {
+            return null;
+        }
+
+        GerritEventJournal.Replay replay = journal.replay(context.getHost(), getQueryConditions(context), context.getTimestamp());
+
+        if(replay == null) {
+            return null;
+        }
+
+        for(GerritPatchSet patchSet : replay.getPatchSets()) {
+            if(!isSkipped(context, patchSet)) {
+                patchSets.add(patchSet);
+            }
+        }
+
+        context.updateTimestampIfNewer(replay.getCoveredUntil());
+        LOG.debug(String.format("GERRIT: Replayed %s patch set(s) from the journal up to %s.", patchSets.size(), replay.getCoveredUntil()));
+
+        return replay;
+    }
+
+    private boolean isPolledWithin(GerritEventJournal.Replay replay, long millis) {
+        return replay != null && System.currentTimeMillis() - replay.getPolledAt() < millis;
+    }
+
+    private long getRetryBackoffMillis(int attempt) {
+        // Exponential backoff with jitter, so that triggers polling the same host don't retry in sync.
+        long backoff = retryBackoffMillis << (attempt - 1);
+
+        return backoff / 2 + (long)(random.nextDouble() * (backoff / 2));
+    }
+
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void queryPatchSets(GerritPolledTriggerContext context, String queryHost, Date timestamp,
+                                List<GerritPatchSet> patchSets, long leaseEpoch) throws JSchException, IOException {
         ChannelExec channel = null;
+        GerritConnection connection = getConnection(context, queryHost);
+        boolean completed = false;
+        List<GerritPatchSet> observed = new ArrayList<GerritPatchSet>();
+        long started = System.currentTimeMillis();
+        long lagMillis = 0;
+
+        if(context.getReplicaHosts().contains(queryHost)) {
+            lagMillis = replicaOverlap.getLookbackMillis(context.getHost(), started);
+            timestamp = new Date(timestamp.getTime() - lagMillis);
+        }
+
+        // Patch sets in the overlap with the previous poll are reported only once.
+        Set<String> reportedRefs = replicaOverlap.getReportedRefs(context.getTriggerKey());
+
+        // Compiled once per query instead of on every row.
+        GerritPathFilter pathFilter = createPathFilter(context);
+
+        GerritPollTrace trace = null;
+        if(recorder != null && context.isRecordPolls()) {
+            trace = new GerritPollTrace(context.getTriggerKey(), queryHost, timestamp, context.getTriggerParameters());
+        }
+
         Session session = null;
 
         try {
-            session = openSession(context);
-            channel = openChannel(context, session);
+            session = sessionPool.getSession(connection);
+            QueryPage page = null;
+
+            if(trace != null) {
+                trace.addSpan("connect", System.currentTimeMillis() - started);
+            }
+
+            // Going further back only while whole pages are newer than the timestamp, i.e. there may be a gap
+            // since the last poll (e.g. after a restart or an outage).
+            for(int pageNumber = 0; pageNumber < MAX_PAGES && (page == null || page.hasMore()); pageNumber++) {
+                long pageStarted = System.currentTimeMillis();
+                channel = openChannel(session, createCommand(context, page, pageNumber));
+
+                if(trace == null) {
+                    page = readGerritPatchSets(context, timestamp, new InputStreamReader(channel.getInputStream()), pathFilter,
+                            reportedRefs, patchSets, observed);
+                } else {
+                    // Read in full before parsing, so that transfer and parsing can be timed separately.
+                    byte[] output = readOutput(channel.getInputStream(), trace, pageStarted);
+                    trace.addPage(output);
+
+                    long parseStarted = System.currentTimeMillis();
+                    page = readGerritPatchSets(context, timestamp, new InputStreamReader(new ByteArrayInputStream(output)), pathFilter,
+                            reportedRefs, patchSets, observed);
+                    trace.addSpan("parse", System.currentTimeMillis() - parseStarted);
+                }
+
+                channel.disconnect();
+                channel = null;
+            }
+
+            replicaOverlap.addQuery(context.getTriggerKey(), context.getHost(), timestamp, started, observed,
+                    context.getTimestamp());
+
+            // Only the node holding the lease publishes, the journal checks the epoch while holding its lock.
+            if(journal != null) {
+                journal.record(context.getHost(), getQueryConditions(context), timestamp, observed, !page.hasMore(), lagMillis, leaseEpoch);
+            }
 
-            return readGerritPatchSets(context, channel);
+            completed = true;
+        }
+        catch (JSchException e) {
+            setError(trace, e);
+            throw e;
+        }
+        catch (IOException e) {
+            setError(trace, e);
+            throw e;
         }
-        catch (Exception e) {
-            LOG.error("Gerrit trigger failed while getting patch sets.", e);
+        catch (RuntimeException e) {
+            setError(trace, e);
+            throw e;
         }
         finally {
+            // Failed polls are recorded too, with the output read before the error.
+            if (trace != null)
+                recorder.record(trace);
             if (channel != null)
                 channel.disconnect();
-            if (session != null)
-                session.disconnect();
+            // The session may be broken, e.g. after a timeout.
+            if (!completed && session != null)
+                sessionPool.invalidate(connection, session);
         }
+    }
 
-        return new ArrayList<GerritPatchSet>();
+    private void setError(GerritPollTrace trace, Exception e) {
+        if(trace != null) {
+            trace.setError(e);
+        }
     }
 
-    private Session openSession(GerritPolledTriggerContext context) throws JSchException {
+    private byte[] readOutput(InputStream in, GerritPollTrace trace, long started) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        long firstByte = -1;
+        int read;
+
+        while((read = in.read(buffer)) != -1) {
+            if(firstByte < 0) {
+                firstByte = System.currentTimeMillis();
+            }
 
-        if(context.hasPassphrase()) {
-            jsch.addIdentity(context.getPrivateKey(), context.getPassphrase());
-        } else {
-            jsch.addIdentity(context.getPrivateKey());
+            output.write(buffer, 0, read);
         }
 
-        Session session = jsch.getSession(context.getUsername(), context.getHost(), 29418);
-        session.setConfig("StrictHostKeyChecking", "no");
-        session.connect();
+        long finished = System.currentTimeMillis();
+        firstByte = firstByte < 0 ? finished : firstByte;
+
+        // Until the first byte Gerrit is running the query, after it the output is being transferred.
+        trace.addSpan("query", firstByte - started);
+        trace.addSpan("transfer", finished - firstByte);
 
-        return session;
+        return output.toByteArray();
     }
 
-    private ChannelExec openChannel(GerritPolledTriggerContext context, Session session) throws JSchException {
+    /**
+     * Reads recorded query output, as if it had been returned by Gerrit.
+     */
+    List<GerritPatchSet> readRecordedOutput(GerritPolledTriggerContext context, GerritPollTrace trace) throws IOException {
+        List<GerritPatchSet> patchSets = new ArrayList<GerritPatchSet>();
+        List<GerritPatchSet> observed = new ArrayList<GerritPatchSet>();
+        GerritPathFilter pathFilter = createPathFilter(context);
+
+        for(byte[] output : trace.getPages()) {
+            readGerritPatchSets(context, trace.getTimestamp(), new InputStreamReader(new ByteArrayInputStream(output)), pathFilter,
+                    Collections.<String>emptySet(), patchSets, observed);
+        }
+
+        return patchSets;
+    }
+
+    private GerritConnection getConnection(GerritPolledTriggerContext context, String host) {
+        return new GerritConnection(context.getUsername(), host, context.getPrivateKey(),
+                context.hasPassphrase() ? context.getPassphrase() : null);
+    }
+
+    private ChannelExec openChannel(Session session, String command) throws JSchException {
         ChannelExec channel;
         channel = (ChannelExec)session.openChannel("exec");
 
-        String command = createCommand(context);
         LOG.debug("GERRIT: " + command);
         channel.setCommand(command);
 
@@ -74,58 +415,169 @@ public class GerritClient {
         return channel;
     }
 
-    private String createCommand(GerritPolledTriggerContext context) {
-        StringBuilder command = new StringBuilder();
-        command.append("gerrit query --format=JSON status:open");
+    private String getQueryConditions(GerritPolledTriggerContext context) {
+        StringBuilder conditions = new StringBuilder();
+        conditions.append("status:open");
 
         if(context.hasProjectParameter()) {
-            command.append(" project:" + context.getProjectParameter());
+            conditions.append(" project:" + context.getProjectParameter());
         }
 
         if(context.hasBranchParameter()) {
-            command.append(" branch:" + context.getBranchParameter());
+            conditions.append(" branch:" + context.getBranchParameter());
         }
 
+        if(context.isSkipUnmergeable()) {
+            conditions.append(" is:mergeable");
+        }
+
+        if(context.isSkipVerified() && context.getUsername().length() > 0) {
+            conditions.append(" -label:Verified=+1," + context.getUsername());
+            conditions.append(" -label:Verified=-1," + context.getUsername());
+        }
+
+        return conditions.toString();
+    }
+
+    private String createCommand(GerritPolledTriggerContext context, QueryPage previousPage, int pageNumber) {
+        StringBuilder command = new StringBuilder();
+        command.append("gerrit query --format=JSON ");
+        command.append(getQueryConditions(context));
+
         // Optimizing the query.
-        // Assuming that no more than <limit> new patch sets are created during a single poll interval.
-        // Adjust if needed.
-        command.append(" limit:10");
-        command.append(" --current-patch-set ");
+        // Assuming that usually no more than <limit> new patch sets are created during a single poll interval.
+        // More pages are fetched if needed.
+        command.append(" limit:" + PAGE_SIZE);
+
+        // Older Gerrit versions page with sort keys, newer ones with --start.
+        if(previousPage != null && previousPage.lastSortKey != null) {
+            command.append(" resume_sortkey:" + previousPage.lastSortKey);
+        }
+
+        command.append(" --current-patch-set");
+
+        if(context.hasPathFilter()) {
+            command.append(" --files");
+        }
+
+        if(previousPage != null && previousPage.lastSortKey == null) {
+            command.append(" --start " + pageNumber * PAGE_SIZE);
+        }
 
         return command.toString();
     }
 
 
-    private List<GerritPatchSet> readGerritPatchSets(GerritPolledTriggerContext context, ChannelExec channel) throws IOException {
-        JsonStreamParser parser = new JsonStreamParser(new InputStreamReader(channel.getInputStream()));
+    private QueryPage readGerritPatchSets(GerritPolledTriggerContext context, Date timestamp, Reader reader, GerritPathFilter pathFilter,
+                                          Set<String> reportedRefs, List<GerritPatchSet> patchSets,
+                                          List<GerritPatchSet> observed) throws IOException {
+        JsonStreamParser parser = new JsonStreamParser(reader);
+        QueryPage page = new QueryPage();
 
-        List<GerritPatchSet> patchSets = new ArrayList<GerritPatchSet>();
+        while(parser.hasNext()) {
+          JsonObject row = parser.next().getAsJsonObject();
 
-        if(context.hasTimestamp()) {
-            Date timestamp = context.getTimestamp();
+          if(isStatsRow(row)) {
+            break;
+          }
 
-            while(parser.hasNext()) {
-               JsonObject row = parser.next().getAsJsonObject();
+          GerritPatchSet patchSet = parsePatchSet(row);
+          page.add(row, timestamp);
 
-              if(isStatsRow(row)) {
-                break;
-              }
+          // Checked here as well, since label search support differs between Gerrit versions. Verified rows are left
+          // out of the journal too, its scope for the trigger is the query without them.
+          boolean verified = context.isSkipVerified() && isVerifiedBy(row, context.getUsername());
 
-              GerritPatchSet patchSet = parsePatchSet(row);
+          if(!verified) {
+            observed.add(patchSet);
+          }
 
-              if(patchSet.getCreatedOn().after(timestamp)) {
-                patchSets.add(patchSet);
-                context.updateTimestampIfNewer(patchSet.getCreatedOn());
-              }
+          if(patchSet.getCreatedOn().after(timestamp) && !containsRef(patchSets, patchSet.getRef())
+                  && !reportedRefs.contains(patchSet.getRef())) {
+            context.updateTimestampIfNewer(patchSet.getCreatedOn());
+
+            if(isSkipped(context, patchSet)) {
+              continue;
+            }
+
+            if(verified) {
+              LOG.debug("GERRIT: Skipping patch set " + patchSet.getRef() + ", already verified by " + context.getUsername());
+              continue;
+            }
+
+            if(pathFilter != null && !pathFilter.isRelevant(parseFiles(row))) {
+              LOG.debug("GERRIT: Skipping patch set " + patchSet.getRef() + ", no relevant files changed.");
+              continue;
             }
+
+            patchSets.add(patchSet);
+          }
         }
-        else {
-            context.updateTimestampIfNewer(new Date());
+
+        return page;
+    }
+
+    private boolean isSkipped(GerritPolledTriggerContext context, GerritPatchSet patchSet) {
+        if(context.isSkipTrivialChanges() && patchSet.isTrivial()) {
+            LOG.debug("GERRIT: Skipping " + patchSet.getKind() + " patch set " + patchSet.getRef());
+            return true;
         }
 
-        return patchSets;
+        return false;
+    }
+
+    private boolean isVerifiedBy(JsonObject row, String username) {
+        JsonObject currentPatchSet = row.get("currentPatchSet").getAsJsonObject();
+
+        if(username.length() == 0 || !currentPatchSet.has("approvals")) {
+            return false;
+        }
+
+        for(JsonElement element : currentPatchSet.get("approvals").getAsJsonArray()) {
+            JsonObject approval = element.getAsJsonObject();
+            String type = getOptionalString(approval, "type");
+            String value = getOptionalString(approval, "value");
+
+            // Older Gerrit versions report the Verified label as VRIF.
+            if(("Verified".equals(type) || "VRIF".equals(type)) && value != null && !value.equals("0")
+                    && approval.has("by") && username.equals(getOptionalString(approval.get("by").getAsJsonObject(), "username"))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private GerritPathFilter createPathFilter(GerritPolledTriggerContext context) {
+        if(!context.hasPathFilter()) {
+            return null;
+        }
+
+        return new GerritPathFilter(context.getIncludePaths(), context.getExcludePaths());
+    }
+
+    private List<String> parseFiles(JsonObject row) {
+        List<String> files = new ArrayList<String>();
+        JsonObject currentPatchSet = row.get("currentPatchSet").getAsJsonObject();
+
+        if(currentPatchSet.has("files")) {
+            for(JsonElement file : currentPatchSet.get("files").getAsJsonArray()) {
+                files.add(file.getAsJsonObject().get("file").getAsString());
+            }
+        }
+
+        return files;
     }
 
+    private boolean containsRef(List<GerritPatchSet> patchSets, String ref) {
+        for(GerritPatchSet p : patchSets) {
+            if(p.getRef().equals(ref)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
 
     private GerritPatchSet parsePatchSet(JsonObject row) {
         String project = row.get("project").getAsString();
@@ -134,11 +586,70 @@ public class GerritClient {
         String ref = currentPatchSet.get("ref").getAsString();
         long createdOn = currentPatchSet.get("createdOn").getAsLong() * 1000L;
 
-        return new GerritPatchSet(project, branch, ref, createdOn);
+        // Metadata is passed on to the build, so that build scripts don't need to query Gerrit again.
+        String changeNumber = getOptionalString(row, "number");
+        String patchSetNumber = getOptionalString(currentPatchSet, "number");
+        String revision = getOptionalString(currentPatchSet, "revision");
+        String topic = getOptionalString(row, "topic");
+        String kind = getOptionalString(currentPatchSet, "kind");
+        List<String> parents = new ArrayList<String>();
+
+        if(currentPatchSet.has("parents")) {
+            for(JsonElement parent : currentPatchSet.get("parents").getAsJsonArray()) {
+                parents.add(parent.getAsString());
+            }
+        }
+        String owner = null;
+
+        if(row.has("owner")) {
+            JsonObject ownerObject = row.get("owner").getAsJsonObject();
+            owner = getOptionalString(ownerObject, "username");
+
+            if(owner == null) {
+                owner = getOptionalString(ownerObject, "name");
+            }
+        }
+
+        return new GerritPatchSet.Builder(project, branch, ref, createdOn)
+                .changeNumber(changeNumber)
+                .patchSetNumber(patchSetNumber)
+                .revision(revision)
+                .owner(owner)
+                .topic(topic)
+                .kind(kind)
+                .parents(parents)
+                .build();
+    }
+
+    private String getOptionalString(JsonObject object, String key) {
+        if(object.has(key) && !object.get(key).isJsonNull()) {
+            return object.get(key).getAsString();
+        }
+
+        return null;
     }
 
     private boolean isStatsRow(JsonObject ticket) {
         return ticket.has("rowCount");
     }
 
+    private static class QueryPage {
+        private int rowCount = 0;
+        private String lastSortKey;
+        private boolean reachedTimestamp = false;
+
+        private void add(JsonObject row, Date timestamp) {
+            rowCount++;
+            lastSortKey = row.has("sortKey") ? row.get("sortKey").getAsString() : null;
+
+            // Rows are sorted by last update, so rows after one not updated since the timestamp can't have new patch sets.
+            if(row.has("lastUpdated") && row.get("lastUpdated").getAsLong() * 1000L <= timestamp.getTime()) {
+                reachedTimestamp = true;
+            }
+        }
+
+        private boolean hasMore() {
+            return !reachedTimestamp && rowCount >= PAGE_SIZE;
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package org.saulis;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SSH login to a Gerrit host.
+ */
+class GerritConnection {
+
+    private final String username;
+    private final String host;
+    private final String privateKey;
+    private final String passphrase;
+
+    public GerritConnection(String username, String host, String privateKey, String passphrase) {
+        this.username = username;
+        this.host = host;
+        this.privateKey = privateKey;
+        this.passphrase = passphrase;
+    }
+
+    /**
+     * Login to the primary host of a trigger.
+     */
+    public static GerritConnection fromTriggerParameters(Map<String, String> parameters) {
+        return getTriggerConnections(parameters).get(0);
+    }
+
+    /**
+     * Logins to all the hosts of a trigger, the primary first.
+     */
+    public static List<GerritConnection> getTriggerConnections(Map<String, String> parameters) {
+        List<GerritConnection> connections = new ArrayList<GerritConnection>();
+        String username = getTrimmedParameter(parameters, Parameters.USERNAME);
+        String privateKey = getPrivateKeyPath(getTrimmedParameter(parameters, Parameters.KEYPATH));
+        String passphrase = getTrimmedParameter(parameters, Parameters.PASSPHRASE);
+
+        for(String host : getTrimmedParameter(parameters, Parameters.HOST).split("[,\\n]")) {
+            if(host.trim().length() > 0 || connections.isEmpty()) {
+                connections.add(new GerritConnection(username, host.trim(), privateKey,
+                        passphrase.isEmpty() ? null : passphrase));
+            }
+        }
+
+        return connections;
+    }
+
+    private static String getTrimmedParameter(Map<String, String> parameters, String key) {
+        String value = parameters.get(key);
+
+        return value == null ? "" : value.trim();
+    }
+
+    static String getPrivateKeyPath(String customPrivateKey) {
+        if(!customPrivateKey.isEmpty()) {
+            return new File(customPrivateKey).getAbsolutePath();
+        } else {
+            String home = System.getProperty("user.home");
+            home = home == null ? new File(".").getAbsolutePath() : new File(home).getAbsolutePath();
+            return new File(new File(home, ".ssh"), "id_rsa").getAbsolutePath();
+        }
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getPrivateKey() {
+        return privateKey;
+    }
+
+    public String getPassphrase() {
+        return passphrase;
+    }
+
+    public String getKey() {
+        return username + "@" + host;
+    }
+}
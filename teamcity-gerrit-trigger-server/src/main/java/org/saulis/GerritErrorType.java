@@ -0,0 +1,87 @@
+package org.saulis;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.jcraft.jsch.JSchException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.NoSuchElementException;
+
+enum GerritErrorType {
+    AUTH(false),
+    NETWORK(true),
+    TIMEOUT(true),
+    PARSE(false),
+    UNKNOWN(false);
+
+    private final boolean transientError;
+
+    GerritErrorType(boolean transientError) {
+        this.transientError = transientError;
+    }
+
+    /**
+     * Transient errors are worth retrying right away, others will fail the same way until the configuration
+     * or the data in Gerrit changes.
+     */
+    public boolean isTransient() {
+        return transientError;
+    }
+
+    public static GerritErrorType classify(Throwable e) {
+        if(e instanceof JsonIOException) {
+            // Gson wraps the errors of reading the stream into a JsonParseException subclass, the data itself may be fine.
+            return e.getCause() instanceof IOException ? classify(e.getCause()) : NETWORK;
+        }
+
+        if(e instanceof NoSuchElementException || e.getCause() instanceof EOFException) {
+            // The output ended in the middle of a row, the connection was cut rather than the data being broken.
+            return NETWORK;
+        }
+
+        if(e instanceof JsonParseException || e instanceof IllegalStateException || e instanceof ClassCastException) {
+            return PARSE;
+        }
+
+        if(e instanceof SocketTimeoutException) {
+            return TIMEOUT;
+        }
+
+        if(e instanceof UnknownHostException || e instanceof ConnectException) {
+            return NETWORK;
+        }
+
+        if(e instanceof JSchException) {
+            // JSch reports most failures with plain JSchExceptions, the cause or message is all there is to go with.
+            if(e.getCause() != null && e.getCause() != e) {
+                GerritErrorType causeType = classify(e.getCause());
+
+                if(causeType != UNKNOWN) {
+                    return causeType;
+                }
+            }
+
+            String message = e.getMessage() == null ? "" : e.getMessage().toLowerCase();
+
+            if(message.contains("auth") || message.contains("privatekey") || message.contains("publickey")) {
+                return AUTH;
+            }
+
+            if(message.contains("timeout") || message.contains("timed out")) {
+                return TIMEOUT;
+            }
+
+            return NETWORK;
+        }
+
+        if(e instanceof IOException) {
+            return NETWORK;
+        }
+
+        return UNKNOWN;
+    }
+}
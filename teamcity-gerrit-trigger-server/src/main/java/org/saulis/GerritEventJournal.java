@@ -0,0 +1,539 @@
+package org.saulis;
+
+import jetbrains.buildServer.log.Loggers;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Journal of the patch sets seen on each Gerrit host, per query scope, for replaying polls locally.
+ */
+class GerritEventJournal {
+
+    private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritEventJournal.class);
+    private static final String CHARSET = "UTF-8";
+    private static final String HEADER_PREFIX = "#generation ";
+
+    private final File directory;
+    private final GerritPollerLease lease;
+    private final long maxBytes;
+    private final long retentionMillis;
+    private final Map<String, HostJournal> hostJournals = new HashMap<String, HostJournal>();
+
+    public GerritEventJournal(File directory) {
+        this(directory, null);
+    }
+
+    public GerritEventJournal(File directory, GerritPollerLease lease) {
+        this(directory, lease, 4 * 1024 * 1024L, 7 * 24 * 60 * 60 * 1000L);
+    }
+
+    GerritEventJournal(File directory, long maxBytes, long retentionMillis) {
+        this(directory, null, maxBytes, retentionMillis);
+    }
+
+    GerritEventJournal(File directory, GerritPollerLease lease, long maxBytes, long retentionMillis) {
+        this.directory = directory;
+        this.lease = lease;
+        this.maxBytes = maxBytes;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Appends the patch sets not yet in the journal. If the query returned everything created after
+     * <code>from</code>, the scope is marked covered from <code>from</code> to the newest patch set seen.
+     */
+    public void record(String host, String scope, Date from, List<GerritPatchSet> observed, boolean complete) {
+        record(host, scope, from, observed, complete, 0, -1);
+    }
+
+    /**
+     * Records the results of a query which may be lagging behind by <code>lagMillis</code>, e.g. one made to a
+     * read replica. The coverage is not extended past the lag. The results are dropped if the lease of the host
+     * acquired with <code>leaseEpoch</code> has been lost, which is checked while holding the journal's lock.
+     */
+    public void record(String host, String scope, Date from, List<GerritPatchSet> observed, boolean complete,
+                       long lagMillis, long leaseEpoch) {
+        try {
+            HostJournal journal = getHostJournal(host);
+            GerritFileLock lock = GerritFileLock.lock(journal.lockFile);
+            try {
+                if(lease != null && !lease.isHeld(host, leaseEpoch)) {
+                    LOG.debug("GERRIT: Not recording results of " + host + ", the poller lease has been lost.");
+                    return;
+                }
+
+                journal.refresh();
+                journal.append(scope, observed);
+
+                if(complete) {
+                    long to = from.getTime();
+                    for(GerritPatchSet p : observed) {
+                        to = Math.max(to, p.getCreatedOn().getTime());
+                    }
+
+                    if(lagMillis > 0) {
+                        to = Math.max(from.getTime(), Math.min(to, System.currentTimeMillis() - lagMillis));
+                    }
+
+                    journal.cover(scope, from.getTime(), to);
+                }
+
+                journal.compactIfNeeded();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            LOG.warn("GERRIT: Failed to write event journal of " + host, e);
+        } catch (RuntimeException e) {
+            LOG.warn("GERRIT: Failed to write event journal of " + host, e);
+        }
+    }
+
+    /**
+     * Returns the patch sets of the scope created after <code>since</code>, or null if the journal doesn't cover
+     * the time after <code>since</code> for the scope or can't be read.
+     */
+    public Replay replay(String host, String scope, Date since) {
+        try {
+            HostJournal journal = getHostJournal(host);
+            GerritFileLock lock = GerritFileLock.lock(journal.lockFile);
+            try {
+                journal.refresh();
+                Coverage coverage = journal.getCoverage(scope);
+
+                if(coverage == null || since.getTime() < coverage.from) {
+                    return null;
+                }
+
+                List<GerritPatchSet> patchSets = journal.read(scope, since.getTime(), coverage.to);
+
+                return new Replay(patchSets, new Date(Math.max(since.getTime(), coverage.to)), coverage.polledAt);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            LOG.warn("GERRIT: Failed to read event journal of " + host, e);
+            return null;
+        } catch (RuntimeException e) {
+            // E.g. a corrupted record, querying Gerrit instead.
+            LOG.warn("GERRIT: Failed to read event journal of " + host, e);
+            return null;
+        }
+    }
+
+    private synchronized HostJournal getHostJournal(String host) throws IOException {
+        HostJournal journal = hostJournals.get(host);
+
+        if(journal == null) {
+            if(!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Failed to create " + directory);
+            }
+
+            String name = host.replaceAll("[^A-Za-z0-9._-]", "_");
+            journal = new HostJournal(new File(directory, name + ".journal"), new File(directory, name + ".coverage"),
+                    new File(directory, name + ".lock"));
+            hostJournals.put(host, journal);
+        }
+
+        return journal;
+    }
+
+    public static class Replay {
+        private final List<GerritPatchSet> patchSets;
+        private final Date coveredUntil;
+        private final long polledAt;
+
+        private Replay(List<GerritPatchSet> patchSets, Date coveredUntil, long polledAt) {
+            this.patchSets = patchSets;
+            this.coveredUntil = coveredUntil;
+            this.polledAt = polledAt;
+        }
+
+        public List<GerritPatchSet> getPatchSets() {
+            return patchSets;
+        }
+
+        /**
+         * Creation time up to which the journal has all patch sets of the scope.
+         */
+        public Date getCoveredUntil() {
+            return coveredUntil;
+        }
+
+        /**
+         * Local time when Gerrit was last queried for the scope.
+         */
+        public long getPolledAt() {
+            return polledAt;
+        }
+    }
+
+    private static class Coverage {
+        private long from;
+        private long to;
+        private long polledAt;
+
+        private Coverage(long from, long to, long polledAt) {
+            this.from = from;
+            this.to = to;
+            this.polledAt = polledAt;
+        }
+    }
+
+    private static class Entry {
+        private final String scope;
+        private final long createdOn;
+        private final long offset;
+        private final int length;
+
+        private Entry(String scope, long createdOn, long offset, int length) {
+            this.scope = scope;
+            this.createdOn = createdOn;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private class HostJournal {
+        private final File file;
+        private final File coverageFile;
+        private final File lockFile;
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private final Set<String> refs = new HashSet<String>();
+        private final Map<String, Coverage> coverages = new HashMap<String, Coverage>();
+        private String indexedGeneration = "";
+        private long indexedLength = 0;
+
+        private HostJournal(File file, File coverageFile, File lockFile) {
+            this.file = file;
+            this.coverageFile = coverageFile;
+            this.lockFile = lockFile;
+        }
+
+        private void refresh() throws IOException {
+            long length = file.length();
+            String generation = readGeneration();
+
+            if(length < indexedLength || !generation.equals(indexedGeneration)) {
+                // File has been rewritten, e.g. compacted by another process.
+                entries.clear();
+                refs.clear();
+                indexedLength = 0;
+                indexedGeneration = generation;
+            }
+
+            if(length > indexedLength) {
+                index(length);
+            }
+
+            // Small enough to be read every time, so that changes made by other processes are always seen.
+            loadCoverages();
+        }
+
+        private String readGeneration() throws IOException {
+            if(!file.exists()) {
+                return "";
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                String line = raf.readLine();
+
+                return line != null && line.startsWith(HEADER_PREFIX) ? line.substring(HEADER_PREFIX.length()) : "";
+            } finally {
+                raf.close();
+            }
+        }
+
+        private void index(long length) throws IOException {
+            InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+            try {
+                long skipped = 0;
+                while(skipped < indexedLength) {
+                    long n = in.skip(indexedLength - skipped);
+                    if(n <= 0) {
+                        throw new EOFException("Unexpected end of " + file);
+                    }
+                    skipped += n;
+                }
+
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                long offset = indexedLength;
+                long lineStart = offset;
+                int b;
+
+                while(offset < length && (b = in.read()) != -1) {
+                    offset++;
+
+                    if(b == '\n') {
+                        indexLine(line.toByteArray(), lineStart);
+                        line.reset();
+                        lineStart = offset;
+                    } else {
+                        line.write(b);
+                    }
+                }
+
+                // A partially written line at the end is indexed once it's complete.
+                indexedLength = lineStart;
+            } finally {
+                in.close();
+            }
+        }
+
+        private void indexLine(byte[] line, long offset) {
+            if(line.length > 0 && line[0] == '#') {
+                return;
+            }
+
+            try {
+                String record = new String(line, CHARSET);
+                // Scopes are stored once per journal, the entries of the same scope share the string.
+                String scope = getScope(record).intern();
+                GerritPatchSet p = decode(record);
+                addEntry(new Entry(scope, p.getCreatedOn().getTime(), offset, line.length), scope, p.getRef());
+            } catch (Exception e) {
+                LOG.warn("GERRIT: Skipping invalid record in " + file + ": " + e.getMessage());
+            }
+        }
+
+        private void addEntry(Entry entry, String scope, String ref) {
+            int i = entries.size();
+            while(i > 0 && entries.get(i - 1).createdOn > entry.createdOn) {
+                i--;
+            }
+
+            entries.add(i, entry);
+            refs.add(scope + '\t' + ref);
+        }
+
+        private List<GerritPatchSet> read(String scope, long after, long until) throws IOException {
+            List<GerritPatchSet> patchSets = new ArrayList<GerritPatchSet>();
+            String storedScope = toStoredScope(scope);
+            int first = findFirstAfter(after);
+
+            if(first >= entries.size()) {
+                return patchSets;
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                for(int i = first; i < entries.size() && entries.get(i).createdOn <= until; i++) {
+                    if(entries.get(i).scope.equals(storedScope)) {
+                        patchSets.add(decode(new String(readRecord(raf, entries.get(i)), CHARSET)));
+                    }
+                }
+            } finally {
+                raf.close();
+            }
+
+            return patchSets;
+        }
+
+        private byte[] readRecord(RandomAccessFile raf, Entry entry) throws IOException {
+            byte[] bytes = new byte[entry.length];
+
+            raf.seek(entry.offset);
+            raf.readFully(bytes);
+
+            return bytes;
+        }
+
+        private int findFirstAfter(long time) {
+            int low = 0;
+            int high = entries.size();
+
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+
+                if(entries.get(middle).createdOn <= time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+
+        private void append(String scope, List<GerritPatchSet> patchSets) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Set<String> appended = new HashSet<String>();
+
+            if(file.length() == 0) {
+                writeHeader(bytes);
+            }
+
+            String storedScope = toStoredScope(scope);
+
+            for(GerritPatchSet p : patchSets) {
+                if(!refs.contains(storedScope + '\t' + p.getRef()) && appended.add(p.getRef())) {
+                    bytes.write((storedScope + '\t' + p.toRecord()).getBytes(CHARSET));
+                    bytes.write('\n');
+                }
+            }
+
+            if(!appended.isEmpty()) {
+                FileOutputStream out = new FileOutputStream(file, true);
+                try {
+                    // Written at once, so that readers don't see partial batches.
+                    out.write(bytes.toByteArray());
+                } finally {
+                    out.close();
+                }
+
+                refresh();
+            }
+        }
+
+        private void writeHeader(OutputStream out) throws IOException {
+            String generation = Long.toHexString(System.currentTimeMillis()) + "-" + Long.toHexString(new Random().nextLong());
+
+            out.write((HEADER_PREFIX + generation + "\n").getBytes(CHARSET));
+        }
+
+        private Coverage getCoverage(String scope) {
+            return coverages.get(scope);
+        }
+
+        private void cover(String scope, long from, long to) throws IOException {
+            Coverage coverage = coverages.get(scope);
+
+            // Ranges are merged only if they overlap, otherwise there could be a gap in between.
+            if(coverage != null && from >= coverage.from && from <= coverage.to) {
+                coverage.to = Math.max(coverage.to, to);
+                coverage.polledAt = System.currentTimeMillis();
+            } else {
+                coverages.put(scope, new Coverage(from, to, System.currentTimeMillis()));
+            }
+
+            storeCoverages();
+        }
+
+        private void compactIfNeeded() throws IOException {
+            if(file.length() <= maxBytes) {
+                return;
+            }
+
+            // Keeping the newest records within the retention time up to half of the maximum size, so that a
+            // burst of recent records can't make every following append rewrite the whole file.
+            int keepFrom = entries.size();
+            long keptBytes = 0;
+            int first = findFirstAfter(System.currentTimeMillis() - retentionMillis);
+
+            while(keepFrom > first && keptBytes + entries.get(keepFrom - 1).length + 1 <= maxBytes / 2) {
+                keepFrom--;
+                keptBytes += entries.get(keepFrom).length + 1;
+            }
+
+            // Records created at the same time are kept or dropped together, coverage can't tell them apart.
+            while(keepFrom > 0 && keepFrom < entries.size() && entries.get(keepFrom).createdOn == entries.get(keepFrom - 1).createdOn) {
+                keepFrom++;
+            }
+
+            long cutoff = System.currentTimeMillis() - retentionMillis;
+            if(keepFrom > 0) {
+                cutoff = Math.max(cutoff, entries.get(keepFrom - 1).createdOn);
+            }
+
+            File compacted = new File(file.getPath() + ".tmp");
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(compacted));
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                writeHeader(out);
+
+                for(int i = keepFrom; i < entries.size(); i++) {
+                    out.write(readRecord(raf, entries.get(i)));
+                    out.write('\n');
+                }
+            } finally {
+                raf.close();
+                out.close();
+            }
+
+            if(!compacted.renameTo(file) && !(file.delete() && compacted.renameTo(file))) {
+                throw new IOException("Failed to replace " + file);
+            }
+
+            LOG.info(String.format("GERRIT: Compacted %s from %s to %s records.", file, entries.size(), entries.size() - keepFrom));
+
+            refresh();
+
+            for(Iterator<Coverage> i = coverages.values().iterator(); i.hasNext(); ) {
+                Coverage coverage = i.next();
+
+                if(coverage.to <= cutoff) {
+                    i.remove();
+                } else {
+                    coverage.from = Math.max(coverage.from, cutoff);
+                }
+            }
+
+            storeCoverages();
+        }
+
+        private void loadCoverages() throws IOException {
+            coverages.clear();
+
+            if(!coverageFile.exists()) {
+                return;
+            }
+
+            Properties properties = new Properties();
+            InputStream in = new FileInputStream(coverageFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+
+            for(String scope : properties.stringPropertyNames()) {
+                String[] values = properties.getProperty(scope).split(",");
+
+                if(values.length == 3) {
+                    coverages.put(scope, new Coverage(Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2])));
+                }
+            }
+        }
+
+        private void storeCoverages() throws IOException {
+            Properties properties = new Properties();
+
+            for(Map.Entry<String, Coverage> entry : coverages.entrySet()) {
+                Coverage coverage = entry.getValue();
+                properties.setProperty(entry.getKey(), coverage.from + "," + coverage.to + "," + coverage.polledAt);
+            }
+
+            File stored = new File(coverageFile.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(stored);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+
+            if(!stored.renameTo(coverageFile) && !(coverageFile.delete() && stored.renameTo(coverageFile))) {
+                throw new IOException("Failed to replace " + coverageFile);
+            }
+        }
+    }
+
+    private static String toStoredScope(String scope) {
+        return scope.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    private static String getScope(String record) {
+        int separator = record.indexOf('\t');
+        if(separator < 0) {
+            throw new IllegalArgumentException("Record has no scope: " + record);
+        }
+
+        return record.substring(0, separator);
+    }
+
+    private static GerritPatchSet decode(String record) {
+        return GerritPatchSet.fromRecord(record.substring(getScope(record).length() + 1));
+    }
+}
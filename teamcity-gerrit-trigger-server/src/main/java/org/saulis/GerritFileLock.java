@@ -0,0 +1,61 @@
+package org.saulis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on a file shared by several processes.
+ */
+class GerritFileLock {
+
+    // File locks are held by the whole JVM, so instances in the same JVM need to take turns before locking.
+    private static final ReentrantLock JVM_LOCK = new ReentrantLock();
+
+    private final RandomAccessFile file;
+    private final FileLock lock;
+
+    private GerritFileLock(RandomAccessFile file, FileLock lock) {
+        this.file = file;
+        this.lock = lock;
+    }
+
+    public static GerritFileLock lock(File path) throws IOException {
+        JVM_LOCK.lock();
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+
+            try {
+                return new GerritFileLock(file, file.getChannel().lock());
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            JVM_LOCK.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            JVM_LOCK.unlock();
+            throw e;
+        }
+    }
+
+    public RandomAccessFile getFile() {
+        return file;
+    }
+
+    public void release() throws IOException {
+        try {
+            try {
+                lock.release();
+            } finally {
+                file.close();
+            }
+        } finally {
+            JVM_LOCK.unlock();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.saulis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Backs off from Gerrit hosts which keep failing.
+ */
+class GerritHostHealth {
+
+    private final long baseDownTimeMillis;
+    private final long maxDownTimeMillis;
+    private final Map<String, Integer> consecutiveFailures = new HashMap<String, Integer>();
+    private final Map<String, Long> downUntil = new HashMap<String, Long>();
+
+    public GerritHostHealth() {
+        this(30 * 1000L, 10 * 60 * 1000L);
+    }
+
+    public GerritHostHealth(long baseDownTimeMillis, long maxDownTimeMillis) {
+        this.baseDownTimeMillis = baseDownTimeMillis;
+        this.maxDownTimeMillis = maxDownTimeMillis;
+    }
+
+    public synchronized boolean isAvailable(String host) {
+        Long until = downUntil.get(host);
+
+        return until == null || System.currentTimeMillis() >= until;
+    }
+
+    public synchronized void reportSuccess(String host) {
+        consecutiveFailures.remove(host);
+        downUntil.remove(host);
+    }
+
+    public synchronized void reportFailure(String host) {
+        int failures = consecutiveFailures.containsKey(host) ? consecutiveFailures.get(host) + 1 : 1;
+        consecutiveFailures.put(host, failures);
+
+        long downTime = Math.min(baseDownTimeMillis << Math.min(failures - 1, 20), maxDownTimeMillis);
+        downUntil.put(host, System.currentTimeMillis() + downTime);
+    }
+
+    public synchronized int getConsecutiveFailures(String host) {
+        return consecutiveFailures.containsKey(host) ? consecutiveFailures.get(host) : 0;
+    }
+}
@@ -0,0 +1,78 @@
+package org.saulis;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Picks the replica to query by recent latency, falling back to the primary.
+ */
+class GerritHostSelector {
+
+    // Weight of the latest measurement in the moving average.
+    private static final double SMOOTHING = 0.3;
+
+    private final Random random;
+    private final Map<String, Double> latencies = new HashMap<String, Double>();
+
+    public GerritHostSelector() {
+        this(new Random());
+    }
+
+    GerritHostSelector(Random random) {
+        this.random = random;
+    }
+
+    public synchronized String select(String primary, List<String> replicas, GerritHostHealth hostHealth) {
+        Map<String, Double> weights = new HashMap<String, Double>();
+        double totalWeight = 0;
+
+        for(String replica : replicas) {
+            if(!hostHealth.isAvailable(replica)) {
+                continue;
+            }
+
+            Double latency = latencies.get(replica);
+
+            // Replicas without measurements are tried first.
+            if(latency == null) {
+                return replica;
+            }
+
+            double weight = 1.0 / Math.max(latency, 1.0);
+            weights.put(replica, weight);
+            totalWeight += weight;
+        }
+
+        if(weights.isEmpty()) {
+            return primary;
+        }
+
+        double selected = random.nextDouble() * totalWeight;
+        String host = primary;
+
+        for(String replica : replicas) {
+            if(weights.containsKey(replica)) {
+                host = replica;
+                selected -= weights.get(replica);
+
+                if(selected < 0) {
+                    break;
+                }
+            }
+        }
+
+        return host;
+    }
+
+    public synchronized void recordLatency(String host, long millis) {
+        Double latency = latencies.get(host);
+
+        latencies.put(host, latency == null ? millis : latency * (1 - SMOOTHING) + millis * SMOOTHING);
+    }
+
+    public synchronized Double getLatency(String host) {
+        return latencies.get(host);
+    }
+}
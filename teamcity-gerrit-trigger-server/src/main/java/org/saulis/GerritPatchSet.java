@@ -1,19 +1,42 @@
 package org.saulis;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 class GerritPatchSet {
+    private static final int RECORD_FIELDS = 11;
+
     private final String project;
     private final String branch;
     private final String ref;
     private final Date createdOn;
+    private final String changeNumber;
+    private final String patchSetNumber;
+    private final String revision;
+    private final String owner;
+    private final String topic;
+    private final String kind;
+    private final List<String> parents;
 
     public GerritPatchSet(String project, String branch, String ref, long createdOn) {
+        this(new Builder(project, branch, ref, createdOn));
+    }
 
-        this.project = project;
-        this.branch = branch;
-        this.ref = ref;
-        this.createdOn = new Date(createdOn);
+    private GerritPatchSet(Builder builder) {
+        this.project = builder.project;
+        this.branch = builder.branch;
+        this.ref = builder.ref;
+        this.createdOn = new Date(builder.createdOn);
+        this.changeNumber = builder.changeNumber;
+        this.patchSetNumber = builder.patchSetNumber;
+        this.revision = builder.revision;
+        this.owner = builder.owner;
+        this.topic = builder.topic;
+        this.kind = builder.kind;
+        this.parents = Collections.unmodifiableList(new ArrayList<String>(builder.parents));
     }
 
     public String getProject() {
@@ -29,6 +52,167 @@ class GerritPatchSet {
     }
 
     public Date getCreatedOn() {
-        return createdOn;
+        return new Date(createdOn.getTime());
+    }
+
+    public String getChangeNumber() {
+        return changeNumber;
+    }
+
+    public String getPatchSetNumber() {
+        return patchSetNumber;
+    }
+
+    public String getRevision() {
+        return revision;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public List<String> getParents() {
+        return parents;
+    }
+
+    /**
+     * Identifies the change the patch set belongs to, or the patch set itself if the change number isn't known.
+     */
+    public String getChangeKey() {
+        if(changeNumber == null) {
+            return ref;
+        }
+
+        return project + "/" + changeNumber;
+    }
+
+    public boolean isTrivial() {
+        // Kinds where the code is the same as in the previous patch set (or the parent is just rebased).
+        return "TRIVIAL_REBASE".equals(kind) || "NO_CODE_CHANGE".equals(kind) || "NO_CHANGE".equals(kind);
+    }
+
+    /**
+     * Single line, tab separated form of the patch set, used for storing it.
+     */
+    public String toRecord() {
+        StringBuilder parentList = new StringBuilder();
+        for(String parent : parents) {
+            parentList.append(parentList.length() > 0 ? "," : "").append(parent);
+        }
+
+        String[] fields = new String[] {
+                String.valueOf(createdOn.getTime()), project, branch, ref, changeNumber, patchSetNumber, revision,
+                owner, topic, kind, parentList.toString() };
+
+        StringBuilder record = new StringBuilder();
+        for(int i = 0; i < fields.length; i++) {
+            if(i > 0) {
+                record.append('\t');
+            }
+
+            if(fields[i] != null) {
+                record.append(fields[i].replace('\t', ' ').replace('\n', ' '));
+            }
+        }
+
+        return record.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the record is not in the form written by {@link #toRecord()}
+     */
+    public static GerritPatchSet fromRecord(String record) {
+        String[] fields = record.split("\t", -1);
+        if(fields.length != RECORD_FIELDS) {
+            throw new IllegalArgumentException("Invalid patch set record: " + record);
+        }
+
+        List<String> parents = new ArrayList<String>();
+        if(fields[10].length() > 0) {
+            parents.addAll(Arrays.asList(fields[10].split(",")));
+        }
+
+        // NumberFormatException is an IllegalArgumentException as well.
+        return new Builder(fields[1], fields[2], fields[3], Long.parseLong(fields[0]))
+                .changeNumber(nullIfEmpty(fields[4]))
+                .patchSetNumber(nullIfEmpty(fields[5]))
+                .revision(nullIfEmpty(fields[6]))
+                .owner(nullIfEmpty(fields[7]))
+                .topic(nullIfEmpty(fields[8]))
+                .kind(nullIfEmpty(fields[9]))
+                .parents(parents)
+                .build();
+    }
+
+    private static String nullIfEmpty(String value) {
+        return value.length() == 0 ? null : value;
+    }
+
+    public static class Builder {
+        private final String project;
+        private final String branch;
+        private final String ref;
+        private final long createdOn;
+        private String changeNumber;
+        private String patchSetNumber;
+        private String revision;
+        private String owner;
+        private String topic;
+        private String kind;
+        private List<String> parents = Collections.emptyList();
+
+        public Builder(String project, String branch, String ref, long createdOn) {
+            this.project = project;
+            this.branch = branch;
+            this.ref = ref;
+            this.createdOn = createdOn;
+        }
+
+        public Builder changeNumber(String changeNumber) {
+            this.changeNumber = changeNumber;
+            return this;
+        }
+
+        public Builder patchSetNumber(String patchSetNumber) {
+            this.patchSetNumber = patchSetNumber;
+            return this;
+        }
+
+        public Builder revision(String revision) {
+            this.revision = revision;
+            return this;
+        }
+
+        public Builder owner(String owner) {
+            this.owner = owner;
+            return this;
+        }
+
+        public Builder topic(String topic) {
+            this.topic = topic;
+            return this;
+        }
+
+        public Builder kind(String kind) {
+            this.kind = kind;
+            return this;
+        }
+
+        public Builder parents(List<String> parents) {
+            this.parents = parents;
+            return this;
+        }
+
+        public GerritPatchSet build() {
+            return new GerritPatchSet(this);
+        }
     }
 }
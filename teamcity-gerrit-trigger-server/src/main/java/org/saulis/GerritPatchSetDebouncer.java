@@ -0,0 +1,96 @@
+package org.saulis;
+
+import jetbrains.buildServer.log.Loggers;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Holds back new patch sets until their change has been quiet for a while.
+ */
+class GerritPatchSetDebouncer {
+
+    private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritPatchSetDebouncer.class);
+
+    public List<GerritPatchSet> debounce(GerritPolledTriggerContext context, List<GerritPatchSet> newPatchSets, long now) {
+        long window = context.getDebounceMillis();
+        List<PendingPatchSet> stored = context.getPendingPatchSets();
+
+        if(window <= 0 && stored.isEmpty()) {
+            return newPatchSets;
+        }
+
+        Map<String, PendingPatchSet> pending = new LinkedHashMap<String, PendingPatchSet>();
+        for(PendingPatchSet pendingPatchSet : stored) {
+            pending.put(pendingPatchSet.patchSet.getChangeKey(), pendingPatchSet);
+        }
+
+        for(GerritPatchSet p : newPatchSets) {
+            String changeKey = p.getChangeKey();
+            PendingPatchSet pendingPatchSet = pending.get(changeKey);
+
+            if(pendingPatchSet == null) {
+                pending.put(changeKey, new PendingPatchSet(p, now, now));
+            } else {
+                pendingPatchSet.update(p, now);
+            }
+        }
+
+        long maxWait = context.getDebounceMaxWaitMillis();
+        List<GerritPatchSet> released = new ArrayList<GerritPatchSet>();
+
+        for(Iterator<PendingPatchSet> i = pending.values().iterator(); i.hasNext(); ) {
+            PendingPatchSet pendingPatchSet = i.next();
+
+            if(now - pendingPatchSet.lastSeen >= window || now - pendingPatchSet.firstSeen >= maxWait) {
+                released.add(pendingPatchSet.patchSet);
+                i.remove();
+            }
+        }
+
+        if(!pending.isEmpty()) {
+            LOG.debug(String.format("GERRIT: %s patch set(s) waiting for their change to settle.", pending.size()));
+        }
+        context.setPendingPatchSets(new ArrayList<PendingPatchSet>(pending.values()));
+
+        return released;
+    }
+
+    static class PendingPatchSet {
+        private GerritPatchSet patchSet;
+        private final long firstSeen;
+        private long lastSeen;
+
+        PendingPatchSet(GerritPatchSet patchSet, long firstSeen, long lastSeen) {
+            this.patchSet = patchSet;
+            this.firstSeen = firstSeen;
+            this.lastSeen = lastSeen;
+        }
+
+        GerritPatchSet getPatchSet() {
+            return patchSet;
+        }
+
+        long getFirstSeen() {
+            return firstSeen;
+        }
+
+        long getLastSeen() {
+            return lastSeen;
+        }
+
+        private void update(GerritPatchSet newPatchSet, long now) {
+            // The same patch set can be reported again (e.g. by a lagging replica), that doesn't restart the wait.
+            if(newPatchSet.getRef().equals(patchSet.getRef())) {
+                return;
+            }
+
+            if(!newPatchSet.getCreatedOn().before(patchSet.getCreatedOn())) {
+                LOG.debug("GERRIT: " + patchSet.getRef() + " was superseded by " + newPatchSet.getRef());
+                patchSet = newPatchSet;
+            }
+
+            lastSeen = now;
+        }
+    }
+}
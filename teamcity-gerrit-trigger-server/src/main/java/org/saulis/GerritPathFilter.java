@@ -0,0 +1,139 @@
+package org.saulis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude globs for the files of a patch set.
+ */
+class GerritPathFilter {
+
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+
+    public GerritPathFilter(List<String> includes, List<String> excludes) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    public boolean isRelevant(List<String> files) {
+        for(String file : files) {
+            if(isMagicFile(file)) {
+                continue;
+            }
+
+            if((includes.isEmpty() || matchesAny(includes, file)) && !matchesAny(excludes, file)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isMagicFile(String file) {
+        // Gerrit lists the commit message and merge parents as files starting with a slash.
+        return file.startsWith("/");
+    }
+
+    private boolean matchesAny(List<Glob> globs, String file) {
+        for(Glob glob : globs) {
+            if(glob.matches(file)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private List<Glob> compile(List<String> patterns) {
+        List<Glob> globs = new ArrayList<Glob>();
+
+        for(String pattern : patterns) {
+            String trimmed = pattern.trim();
+
+            if(trimmed.length() > 0) {
+                globs.add(new Glob(trimmed));
+            }
+        }
+
+        return globs;
+    }
+
+    private static class Glob {
+        private final String prefix;
+        private final Pattern pattern;
+
+        private Glob(String glob) {
+            if(glob.startsWith("/")) {
+                glob = glob.substring(1);
+            }
+
+            int wildcard = indexOfWildcard(glob);
+
+            if(wildcard < 0) {
+                // No wildcards, a plain prefix comparison is enough.
+                prefix = glob.endsWith("/") ? glob.substring(0, glob.length() - 1) : glob;
+                pattern = null;
+            } else {
+                prefix = glob.substring(0, wildcard);
+                pattern = Pattern.compile(toRegex(glob));
+            }
+        }
+
+        private boolean matches(String file) {
+            // Most files are rejected by the literal prefix without running the regex.
+            if(!file.startsWith(prefix)) {
+                return false;
+            }
+
+            if(pattern == null) {
+                return file.length() == prefix.length() || prefix.length() == 0 || file.charAt(prefix.length()) == '/';
+            }
+
+            return pattern.matcher(file).matches();
+        }
+
+        private static int indexOfWildcard(String glob) {
+            for(int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+
+                if(c == '*' || c == '?') {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+
+            for(int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+
+                if(c == '*') {
+                    if(i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+
+                        // "**/" matches zero or more directories.
+                        if(i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                } else if(c == '?') {
+                    regex.append("[^/]");
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+
+            return regex.toString();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.saulis;
+
+import jetbrains.buildServer.log.Loggers;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes poll traces to a directory, keeping only the most recent ones.
+ */
+class GerritPollRecorder {
+
+    private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritPollRecorder.class);
+    private static final int MAX_TRACES = 100;
+    private static final String SUFFIX = ".trace";
+    private final File directory;
+    private final int maxTraces;
+    private int sequence;
+
+    public GerritPollRecorder(File directory) {
+        this(directory, MAX_TRACES);
+    }
+
+    GerritPollRecorder(File directory, int maxTraces) {
+        this.directory = directory;
+        this.maxTraces = maxTraces;
+    }
+
+    public synchronized void record(GerritPollTrace trace) {
+        try {
+            if(!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Failed to create " + directory);
+            }
+
+            // Names sort in recording order.
+            File file = new File(directory, String.format("poll-%013d-%04d%s", trace.getRecordedAt(), sequence++ % 10000, SUFFIX));
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                trace.write(out);
+            } finally {
+                out.close();
+            }
+
+            removeOldTraces();
+        } catch (IOException e) {
+            LOG.warn("GERRIT: Failed to record poll trace of " + trace.getTriggerKey(), e);
+        }
+    }
+
+    private void removeOldTraces() {
+        File[] traces = getTraces(directory);
+
+        for(int i = 0; i < traces.length - maxTraces; i++) {
+            if(!traces[i].delete()) {
+                LOG.warn("GERRIT: Failed to delete " + traces[i]);
+            }
+        }
+    }
+
+    /**
+     * Trace files of a directory, oldest first.
+     */
+    public static File[] getTraces(File directory) {
+        File[] traces = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+
+        if(traces == null) {
+            return new File[0];
+        }
+
+        Arrays.sort(traces);
+        return traces;
+    }
+}
@@ -0,0 +1,227 @@
+package org.saulis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timings and raw output of a single poll.
+ */
+class GerritPollTrace {
+
+    private static final String CHARSET = "UTF-8";
+    private final String triggerKey;
+    private final String host;
+    private final Date timestamp;
+    private final Map<String, String> parameters;
+    private final Map<String, Long> spans = new LinkedHashMap<String, Long>();
+    private final List<byte[]> pages = new ArrayList<byte[]>();
+    private long recordedAt = System.currentTimeMillis();
+    private String error;
+
+    public GerritPollTrace(String triggerKey, String host, Date timestamp, Map<String, String> parameters) {
+        this.triggerKey = triggerKey;
+        this.host = host;
+        this.timestamp = timestamp;
+        this.parameters = new LinkedHashMap<String, String>(parameters);
+
+        // Credentials are not needed for replaying.
+        this.parameters.remove(Parameters.PASSPHRASE);
+        this.parameters.remove(Parameters.KEYPATH);
+    }
+
+    public String getTriggerKey() {
+        return triggerKey;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public Map<String, Long> getSpans() {
+        return spans;
+    }
+
+    public List<byte[]> getPages() {
+        return pages;
+    }
+
+    public long getRecordedAt() {
+        return recordedAt;
+    }
+
+    /**
+     * Error the poll failed with, or null if it succeeded.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(Throwable e) {
+        error = GerritErrorType.classify(e) + ": " + e;
+    }
+
+    /**
+     * Adds to the time spent in a phase of the poll, phases repeat for every page.
+     */
+    public void addSpan(String name, long millis) {
+        Long total = spans.get(name);
+
+        spans.put(name, total == null ? millis : total + millis);
+    }
+
+    public void addPage(byte[] output) {
+        pages.add(output);
+    }
+
+    /**
+     * Writes "name: value" header lines followed by the pages of output, each one prefixed by a "page: length" line.
+     */
+    public void write(OutputStream out) throws IOException {
+        writeLine(out, "trigger", triggerKey);
+        writeLine(out, "host", host);
+        writeLine(out, "recordedAt", String.valueOf(recordedAt));
+        writeLine(out, "timestamp", String.valueOf(timestamp.getTime()));
+
+        if(error != null) {
+            writeLine(out, "error", escape(error));
+        }
+
+        for(Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if(parameter.getValue() != null) {
+                writeLine(out, "parameter", escape(parameter.getKey()) + "=" + escape(parameter.getValue()));
+            }
+        }
+
+        for(Map.Entry<String, Long> span : spans.entrySet()) {
+            writeLine(out, "span", span.getKey() + "=" + span.getValue());
+        }
+
+        for(byte[] page : pages) {
+            writeLine(out, "page", String.valueOf(page.length));
+            out.write(page);
+            out.write('\n');
+        }
+    }
+
+    public static GerritPollTrace read(InputStream in) throws IOException {
+        Map<String, String> header = new LinkedHashMap<String, String>();
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        Map<String, Long> spans = new LinkedHashMap<String, Long>();
+        List<byte[]> pages = new ArrayList<byte[]>();
+        String line;
+
+        while((line = readLine(in)) != null) {
+            int separator = line.indexOf(": ");
+            if(separator < 0) {
+                throw new IOException("Invalid trace line: " + line);
+            }
+
+            String name = line.substring(0, separator);
+            String value = line.substring(separator + 2);
+
+            if(name.equals("parameter")) {
+                int equals = value.indexOf('=');
+                parameters.put(unescape(value.substring(0, equals)), unescape(value.substring(equals + 1)));
+            } else if(name.equals("span")) {
+                int equals = value.indexOf('=');
+                spans.put(value.substring(0, equals), Long.parseLong(value.substring(equals + 1)));
+            } else if(name.equals("page")) {
+                pages.add(readPage(in, Integer.parseInt(value)));
+            } else {
+                header.put(name, value);
+            }
+        }
+
+        if(!header.containsKey("timestamp")) {
+            throw new IOException("Trace has no timestamp.");
+        }
+
+        GerritPollTrace trace = new GerritPollTrace(header.get("trigger"), header.get("host"),
+                new Date(Long.parseLong(header.get("timestamp"))), parameters);
+        trace.spans.putAll(spans);
+        trace.pages.addAll(pages);
+
+        if(header.containsKey("recordedAt")) {
+            trace.recordedAt = Long.parseLong(header.get("recordedAt"));
+        }
+
+        if(header.containsKey("error")) {
+            trace.error = unescape(header.get("error"));
+        }
+
+        return trace;
+    }
+
+    private static void writeLine(OutputStream out, String name, String value) throws IOException {
+        out.write((name + ": " + value + "\n").getBytes(CHARSET));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+
+        while((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+
+        if(b == -1 && line.size() == 0) {
+            return null;
+        }
+
+        return line.toString(CHARSET);
+    }
+
+    private static byte[] readPage(InputStream in, int length) throws IOException {
+        byte[] page = new byte[length];
+        int offset = 0;
+
+        while(offset < length) {
+            int read = in.read(page, offset, length - offset);
+            if(read < 0) {
+                throw new IOException("Trace ends in the middle of a page.");
+            }
+            offset += read;
+        }
+
+        // Line break after the page.
+        in.read();
+
+        return page;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder unescaped = new StringBuilder();
+
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if(c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                unescaped.append(next == 'n' ? '\n' : next);
+            } else {
+                unescaped.append(c);
+            }
+        }
+
+        return unescaped.toString();
+    }
+}
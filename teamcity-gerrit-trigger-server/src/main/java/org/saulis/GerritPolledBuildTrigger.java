@@ -10,34 +10,170 @@ import jetbrains.buildServer.serverSide.SBuildType;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 class GerritPolledBuildTrigger extends PolledBuildTrigger {
     private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritPolledBuildTrigger.class);
     private final GerritClient gerritClient;
     private final BuildCustomizerFactory buildCustomizerFactory;
+    private final GerritVerifiedPatchSets verifiedPatchSets;
+    private final GerritPatchSetDebouncer debouncer = new GerritPatchSetDebouncer();
+    private final GerritBuildScheduler buildScheduler = new GerritBuildScheduler();
 
-    public GerritPolledBuildTrigger(GerritClient gerritClient, BuildCustomizerFactory buildCustomizerFactory) {
+    public GerritPolledBuildTrigger(GerritClient gerritClient, BuildCustomizerFactory buildCustomizerFactory,
+                                    GerritVerifiedPatchSets verifiedPatchSets) {
         this.gerritClient = gerritClient;
         this.buildCustomizerFactory = buildCustomizerFactory;
+        this.verifiedPatchSets = verifiedPatchSets;
     }
 
     @Override
     public void triggerBuild(@NotNull PolledTriggerContext polledTriggerContext) throws BuildTriggerException {
         try {
-            List<GerritPatchSet> newPatchSets = gerritClient.getNewPatchSets(new GerritPolledTriggerContext(polledTriggerContext));
+            GerritPolledTriggerContext context = new GerritPolledTriggerContext(polledTriggerContext);
+            List<GerritPatchSet> newPatchSets = gerritClient.getNewPatchSets(context);
+
+            if(context.isBuildChainTipsOnly()) {
+                Map<String, List<GerritPatchSet>> ancestors = new HashMap<String, List<GerritPatchSet>>();
+                newPatchSets = GerritRelationChains.getTips(newPatchSets, ancestors);
+
+                // Stored by change, so that they stay with the chain while the tip waits or gets replaced by a newer patch set.
+                for(GerritPatchSet p : newPatchSets) {
+                    if(ancestors.containsKey(p.getRef())) {
+                        context.addChainAncestors(p.getChangeKey(), ancestors.get(p.getRef()));
+                    }
+                }
+            }
+
+            newPatchSets = debouncer.debounce(context, newPatchSets, System.currentTimeMillis());
+            // Filtered before scheduling, so that patch sets which won't be built don't use up the per-project limit.
+            newPatchSets = getBuildable(context, polledTriggerContext.getBuildType(), newPatchSets);
+            newPatchSets = buildScheduler.schedule(context, newPatchSets, System.currentTimeMillis());
 
             LOG.debug(String.format("GERRIT: Going to trigger %s new build(s).", newPatchSets.size()));
 
             for(GerritPatchSet p : newPatchSets) {
+                String revision = p.getRevision();
                 SBuildType buildType = polledTriggerContext.getBuildType();
+                List<GerritPatchSet> ancestors = context.getChainAncestors(p.getChangeKey());
+
                 BuildCustomizer buildCustomizer = buildCustomizerFactory.createBuildCustomizer(buildType, null);
                 buildCustomizer.setDesiredBranchName(p.getRef().substring(5));
+                buildCustomizer.setParameters(getBuildParameters(polledTriggerContext, p, ancestors));
 
                 buildCustomizer.createPromotion().addToQueue("Gerrit");
+                buildScheduler.addQueuedBuild(context, p, System.currentTimeMillis());
+
+                // Marked only once queued, so that a failure to queue doesn't stop the revision from being built.
+                if(revision != null) {
+                    context.addQueuedRevision(revision);
+                }
+
+                if(!ancestors.isEmpty()) {
+                    // Covered by this build, so they aren't built on their own if the chain is reported again.
+                    for(GerritPatchSet ancestor : ancestors) {
+                        if(ancestor.getRevision() != null) {
+                            context.addQueuedRevision(ancestor.getRevision());
+                        }
+                    }
+
+                    context.removeChainAncestors(p.getChangeKey());
+                }
             }
         } catch (Exception e) {
             LOG.error("GERRIT:", e);
         }
     }
+
+    private List<GerritPatchSet> getBuildable(GerritPolledTriggerContext context, SBuildType buildType,
+                                              List<GerritPatchSet> newPatchSets) {
+        List<GerritPatchSet> buildable = new ArrayList<GerritPatchSet>();
+        Set<String> revisions = new HashSet<String>();
+        LinkedList<GerritPatchSet> patchSets = new LinkedList<GerritPatchSet>(newPatchSets);
+
+        while(!patchSets.isEmpty()) {
+            GerritPatchSet p = patchSets.removeFirst();
+            String revision = p.getRevision();
+
+            // Same revision can be reported again, e.g. when a change is restored. No point building it twice.
+            if(revision != null && (context.isRevisionQueued(revision) || !revisions.add(revision))) {
+                LOG.debug(String.format("GERRIT: Revision %s has already been queued, skipping.", revision));
+                releaseChainAncestors(context, p, patchSets);
+                continue;
+            }
+
+            if(context.isReuseVerifiedResults() && verifiedPatchSets.isVerified(buildType.getBuildTypeId(), p)) {
+                // Same code has already been built successfully. Marking this one verified too,
+                // so that a following message-only edit is recognized as well.
+                LOG.info(String.format("GERRIT: %s has the same code as an already verified patch set, not building it again.", p.getRef()));
+                verifiedPatchSets.addVerified(buildType.getBuildTypeId(), p);
+                releaseChainAncestors(context, p, patchSets);
+                continue;
+            }
+
+            buildable.add(p);
+        }
+
+        return buildable;
+    }
+
+    /**
+     * The patch sets collapsed into a tip are covered only by a build of the tip. If the tip isn't built,
+     * they are built on their own.
+     */
+    private void releaseChainAncestors(GerritPolledTriggerContext context, GerritPatchSet tip, List<GerritPatchSet> patchSets) {
+        List<GerritPatchSet> ancestors = context.getChainAncestors(tip.getChangeKey());
+
+        if(!ancestors.isEmpty()) {
+            context.removeChainAncestors(tip.getChangeKey());
+            patchSets.addAll(ancestors);
+        }
+    }
+
+    private Map<String, String> getBuildParameters(PolledTriggerContext polledTriggerContext, GerritPatchSet p,
+                                                   List<GerritPatchSet> ancestors) {
+        Map<String, String> parameters = new HashMap<String, String>();
+
+        putIfNotNull(parameters, BuildParameters.PROJECT, p.getProject());
+        putIfNotNull(parameters, BuildParameters.CHANGE_NUMBER, p.getChangeNumber());
+        putIfNotNull(parameters, BuildParameters.PATCHSET_NUMBER, p.getPatchSetNumber());
+        putIfNotNull(parameters, BuildParameters.REVISION, p.getRevision());
+        putIfNotNull(parameters, BuildParameters.OWNER, p.getOwner());
+        putIfNotNull(parameters, BuildParameters.TOPIC, p.getTopic());
+        // Identifies the trigger for reporting the result back to Gerrit.
+        putIfNotNull(parameters, BuildParameters.TRIGGER_ID, polledTriggerContext.getTriggerDescriptor().getId());
+
+        if(!ancestors.isEmpty()) {
+            StringBuilder changes = new StringBuilder();
+            StringBuilder patchSets = new StringBuilder();
+
+            for(GerritPatchSet ancestor : ancestors) {
+                if(ancestor.getChangeNumber() != null) {
+                    changes.append(changes.length() > 0 ? "," : "").append(ancestor.getChangeNumber());
+
+                    if(ancestor.getPatchSetNumber() != null) {
+                        patchSets.append(patchSets.length() > 0 ? " " : "")
+                                .append(ancestor.getChangeNumber()).append(',').append(ancestor.getPatchSetNumber());
+                    }
+                }
+            }
+
+            parameters.put(BuildParameters.CHAIN_CHANGES, changes.toString());
+            parameters.put(BuildParameters.CHAIN_PATCHSETS, patchSets.toString());
+        }
+
+        return parameters;
+    }
+
+    private void putIfNotNull(Map<String, String> parameters, String key, String value) {
+        if(value != null) {
+            parameters.put(key, value);
+        }
+    }
 }
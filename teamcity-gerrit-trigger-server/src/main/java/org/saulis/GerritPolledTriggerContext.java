@@ -3,14 +3,24 @@ package org.saulis;
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.buildTriggers.PolledTriggerContext;
 
-import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 public class GerritPolledTriggerContext {
 
     private final PolledTriggerContext context;
     private final String TIMESTAMP_KEY = "timestamp";
+    private final String REVISIONS_KEY = "revisions";
+    private final String CHAINS_KEY = "chains";
+    private final String DEFERRED_KEY = "deferred";
+    private final String PENDING_KEY = "pending";
+    private static final int MAX_STORED_REVISIONS = 100;
 
     public GerritPolledTriggerContext(PolledTriggerContext polledTriggerContext) {
 
@@ -37,12 +47,38 @@ public class GerritPolledTriggerContext {
         return triggerDescriptor.getParameters();
     }
 
+    public Map<String, String> getTriggerParameters() {
+        return getParameters(context);
+    }
+
     public String getUsername() {
         return getTrimmedParameter(context, Parameters.USERNAME);
     }
 
+    /**
+     * Primary Gerrit host, the first one of the configured hosts.
+     */
     public String getHost() {
-        return getTrimmedParameter(context, Parameters.HOST);
+        return getPrimaryHost(getTriggerParameters());
+    }
+
+    /**
+     * Read replicas, the configured hosts after the primary.
+     */
+    public List<String> getReplicaHosts() {
+        return getReplicaHosts(getTriggerParameters());
+    }
+
+    static String getPrimaryHost(Map<String, String> parameters) {
+        List<String> hosts = splitList(parameters.get(Parameters.HOST));
+
+        return hosts.isEmpty() ? "" : hosts.get(0);
+    }
+
+    static List<String> getReplicaHosts(Map<String, String> parameters) {
+        List<String> hosts = splitList(parameters.get(Parameters.HOST));
+
+        return hosts.isEmpty() ? hosts : hosts.subList(1, hosts.size());
     }
 
     public String getPassphrase() {
@@ -62,13 +98,7 @@ public class GerritPolledTriggerContext {
     }
 
     public String getPrivateKey() {
-        if(hasCustomPrivateKey()) {
-            return new File(getCustomPrivateKey()).getAbsolutePath();
-        } else {
-            String home = System.getProperty("user.home");
-            home = home == null ? new File(".").getAbsolutePath() : new File(home).getAbsolutePath();
-            return new File(new File(home, ".ssh"), "id_rsa").getAbsolutePath();
-        }
+        return GerritConnection.getPrivateKeyPath(getCustomPrivateKey());
     }
 
     public boolean hasProjectParameter() {
@@ -87,6 +117,117 @@ public class GerritPolledTriggerContext {
         return getTrimmedParameter(context, Parameters.BRANCH);
     }
 
+    public boolean isSkipTrivialChanges() {
+        return Boolean.parseBoolean(getTrimmedParameter(context, Parameters.SKIP_TRIVIAL_CHANGES));
+    }
+
+    public boolean isRecordPolls() {
+        return Boolean.parseBoolean(getTrimmedParameter(context, Parameters.RECORD_POLLS));
+    }
+
+    public boolean isSkipUnmergeable() {
+        return Boolean.parseBoolean(getTrimmedParameter(context, Parameters.SKIP_UNMERGEABLE));
+    }
+
+    public boolean isSkipVerified() {
+        return Boolean.parseBoolean(getTrimmedParameter(context, Parameters.SKIP_VERIFIED));
+    }
+
+    public List<String> getIncludePaths() {
+        return getListParameter(Parameters.INCLUDE_PATHS);
+    }
+
+    public List<String> getExcludePaths() {
+        return getListParameter(Parameters.EXCLUDE_PATHS);
+    }
+
+    public boolean hasPathFilter() {
+        return !getIncludePaths().isEmpty() || !getExcludePaths().isEmpty();
+    }
+
+    private List<String> getListParameter(String key) {
+        return splitList(getTrimmedParameter(context, key));
+    }
+
+    private static List<String> splitList(String parameter) {
+        List<String> values = new ArrayList<String>();
+
+        if(parameter == null) {
+            return values;
+        }
+
+        // Values can be separated by new lines or commas.
+        for(String value : parameter.split("[,\\n]")) {
+            if(value.trim().length() > 0) {
+                values.add(value.trim());
+            }
+        }
+
+        return values;
+    }
+
+    public boolean isBuildChainTipsOnly() {
+        return Boolean.parseBoolean(getTrimmedParameter(context, Parameters.BUILD_CHAIN_TIPS_ONLY));
+    }
+
+    public boolean isReuseVerifiedResults() {
+        return Boolean.parseBoolean(getTrimmedParameter(context, Parameters.REUSE_VERIFIED_RESULTS));
+    }
+
+    public String getPriority() {
+        return getTrimmedParameter(context, Parameters.PRIORITY);
+    }
+
+    public int getMaxBuildsPerPoll() {
+        return parseInt(getTrimmedParameter(context, Parameters.MAX_BUILDS_PER_POLL), 0);
+    }
+
+    public Map<String, Integer> getProjectWeights() {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+
+        // Format: project1=3, project2=1
+        for(String weight : getTrimmedParameter(context, Parameters.PROJECT_WEIGHTS).split(",")) {
+            String[] parts = weight.split("=");
+
+            if(parts.length == 2) {
+                weights.put(parts[0].trim(), parseInt(parts[1].trim(), 1));
+            }
+        }
+
+        return weights;
+    }
+
+    public long getDebounceMillis() {
+        return parseInt(getTrimmedParameter(context, Parameters.DEBOUNCE), 0) * 1000L;
+    }
+
+    public long getDebounceMaxWaitMillis() {
+        long maxWait = parseInt(getTrimmedParameter(context, Parameters.DEBOUNCE_MAX_WAIT), 0) * 1000L;
+
+        // A change that keeps getting new patch sets still gets built every now and then.
+        return maxWait > 0 ? maxWait : getDebounceMillis() * 5;
+    }
+
+    private long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // Treated as seen long ago, so that the patch set is released.
+            return 0L;
+        }
+    }
+
+    private int parseInt(String value, int defaultValue) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public String getTriggerKey() {
+        return context.getBuildType().getBuildTypeId() + "/" + context.getTriggerDescriptor().getId();
+    }
 
     public void updateTimestampIfNewer(Date timestamp) {
         if(hasTimestamp()) {
@@ -127,4 +268,221 @@ public class GerritPolledTriggerContext {
 
         return new Date(Long.parseLong(values.get(TIMESTAMP_KEY)));
     }
+
+    public boolean isRevisionQueued(String revision) {
+        return getQueuedRevisions().contains(revision);
+    }
+
+    public void addQueuedRevision(String revision) {
+        LinkedList<String> revisions = getQueuedRevisions();
+
+        // Keeping only the most recent revisions, older ones won't be reported by the query anymore.
+        revisions.remove(revision);
+        revisions.addLast(revision);
+
+        while(revisions.size() > MAX_STORED_REVISIONS) {
+            revisions.removeFirst();
+        }
+
+        StringBuilder value = new StringBuilder();
+        for(String r : revisions) {
+            if(value.length() > 0) {
+                value.append(",");
+            }
+            value.append(r);
+        }
+
+        context.getCustomDataStorage().putValue(REVISIONS_KEY, value.toString());
+    }
+
+    private LinkedList<String> getQueuedRevisions() {
+        LinkedList<String> revisions = new LinkedList<String>();
+
+        if(hasStoredValues()) {
+            String value = getStoredValues().get(REVISIONS_KEY);
+
+            if(value != null && value.length() > 0) {
+                revisions.addAll(Arrays.asList(value.split(",")));
+            }
+        }
+
+        return revisions;
+    }
+
+    /**
+     * Patch sets held back by the build scheduler to be queued on a later poll.
+     */
+    public List<GerritPatchSet> getDeferredPatchSets() {
+        return getStoredPatchSets(DEFERRED_KEY);
+    }
+
+    public void setDeferredPatchSets(List<GerritPatchSet> patchSets) {
+        putStoredPatchSets(DEFERRED_KEY, patchSets);
+    }
+
+    /**
+     * Patch sets held back by the debouncer until their change settles.
+     */
+    public List<GerritPatchSetDebouncer.PendingPatchSet> getPendingPatchSets() {
+        List<GerritPatchSetDebouncer.PendingPatchSet> pending = new ArrayList<GerritPatchSetDebouncer.PendingPatchSet>();
+
+        // Format: one "<first seen><tab><last seen><tab><patch set record>" line per patch set.
+        for(String line : getStoredLines(PENDING_KEY)) {
+            String[] fields = line.split("\t", 3);
+            GerritPatchSet p = fields.length == 3 ? parseRecord(fields[2]) : null;
+
+            if(p != null) {
+                pending.add(new GerritPatchSetDebouncer.PendingPatchSet(p, parseLong(fields[0]), parseLong(fields[1])));
+            }
+        }
+
+        return pending;
+    }
+
+    public void setPendingPatchSets(List<GerritPatchSetDebouncer.PendingPatchSet> pending) {
+        List<String> lines = new ArrayList<String>();
+
+        for(GerritPatchSetDebouncer.PendingPatchSet p : pending) {
+            lines.add(p.getFirstSeen() + "\t" + p.getLastSeen() + "\t" + p.getPatchSet().toRecord());
+        }
+
+        putStoredLines(PENDING_KEY, lines);
+    }
+
+    /**
+     * Patch sets collapsed into the tip of their relation chain, which haven't been covered by a build of the tip yet.
+     */
+    public List<GerritPatchSet> getChainAncestors(String tipChangeKey) {
+        List<GerritPatchSet> ancestors = getStoredChains().get(tipChangeKey);
+
+        return ancestors == null ? new ArrayList<GerritPatchSet>() : ancestors;
+    }
+
+    public void addChainAncestors(String tipChangeKey, List<GerritPatchSet> ancestors) {
+        Map<String, List<GerritPatchSet>> chains = getStoredChains();
+        Map<String, GerritPatchSet> ancestorsByChange = new LinkedHashMap<String, GerritPatchSet>();
+
+        // A new patch set of the tip keeps the ancestors of the previous one. Only the newest patch set of each ancestor is kept.
+        List<GerritPatchSet> merged = new ArrayList<GerritPatchSet>();
+        if(chains.containsKey(tipChangeKey)) {
+            merged.addAll(chains.get(tipChangeKey));
+        }
+        merged.addAll(ancestors);
+
+        for(GerritPatchSet p : merged) {
+            GerritPatchSet previous = ancestorsByChange.get(p.getChangeKey());
+
+            if(previous == null || !p.getCreatedOn().before(previous.getCreatedOn())) {
+                ancestorsByChange.put(p.getChangeKey(), p);
+            }
+        }
+
+        chains.put(tipChangeKey, new ArrayList<GerritPatchSet>(ancestorsByChange.values()));
+        storeChains(chains);
+    }
+
+    public void removeChainAncestors(String tipChangeKey) {
+        Map<String, List<GerritPatchSet>> chains = getStoredChains();
+
+        if(chains.remove(tipChangeKey) != null) {
+            storeChains(chains);
+        }
+    }
+
+    private Map<String, List<GerritPatchSet>> getStoredChains() {
+        Map<String, List<GerritPatchSet>> chains = new LinkedHashMap<String, List<GerritPatchSet>>();
+
+        // Format: one "<tip change key><tab><patch set record>" line per ancestor.
+        for(String line : getStoredLines(CHAINS_KEY)) {
+            int separator = line.indexOf('\t');
+            GerritPatchSet ancestor = parseRecord(line.substring(separator + 1));
+
+            if(separator > 0 && ancestor != null) {
+                String tipChangeKey = line.substring(0, separator);
+
+                if(!chains.containsKey(tipChangeKey)) {
+                    chains.put(tipChangeKey, new ArrayList<GerritPatchSet>());
+                }
+
+                chains.get(tipChangeKey).add(ancestor);
+            }
+        }
+
+        return chains;
+    }
+
+    private void storeChains(Map<String, List<GerritPatchSet>> chains) {
+        List<String> lines = new ArrayList<String>();
+
+        for(Map.Entry<String, List<GerritPatchSet>> entry : chains.entrySet()) {
+            for(GerritPatchSet ancestor : entry.getValue()) {
+                lines.add(entry.getKey() + "\t" + ancestor.toRecord());
+            }
+        }
+
+        putStoredLines(CHAINS_KEY, lines);
+    }
+
+    private List<GerritPatchSet> getStoredPatchSets(String key) {
+        List<GerritPatchSet> patchSets = new ArrayList<GerritPatchSet>();
+
+        for(String line : getStoredLines(key)) {
+            GerritPatchSet p = parseRecord(line);
+
+            if(p != null) {
+                patchSets.add(p);
+            }
+        }
+
+        return patchSets;
+    }
+
+    private void putStoredPatchSets(String key, List<GerritPatchSet> patchSets) {
+        List<String> lines = new ArrayList<String>();
+
+        for(GerritPatchSet p : patchSets) {
+            lines.add(p.toRecord());
+        }
+
+        putStoredLines(key, lines);
+    }
+
+    private GerritPatchSet parseRecord(String record) {
+        try {
+            return GerritPatchSet.fromRecord(record);
+        } catch (IllegalArgumentException e) {
+            // Stored by an incompatible version, can't be used.
+            return null;
+        }
+    }
+
+    private List<String> getStoredLines(String key) {
+        List<String> lines = new ArrayList<String>();
+
+        if(hasStoredValues()) {
+            String value = getStoredValues().get(key);
+
+            if(value != null && value.length() > 0) {
+                lines.addAll(Arrays.asList(value.split("\n")));
+            }
+        }
+
+        return lines;
+    }
+
+    private void putStoredLines(String key, List<String> lines) {
+        StringBuilder value = new StringBuilder();
+        for(String line : lines) {
+            if(value.length() > 0) {
+                value.append("\n");
+            }
+            value.append(line);
+        }
+
+        // Most polls don't change anything, no need to have the storage written then.
+        String previous = hasStoredValues() ? getStoredValues().get(key) : null;
+        if(!value.toString().equals(previous == null ? "" : previous)) {
+            context.getCustomDataStorage().putValue(key, value.toString());
+        }
+    }
 }
@@ -0,0 +1,223 @@
+package org.saulis;
+
+import jetbrains.buildServer.log.Loggers;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * File lease electing the node which polls each Gerrit host.
+ */
+class GerritPollerLease {
+
+    private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritPollerLease.class);
+
+    private final File directory;
+    private final String nodeId;
+    private final long leaseMillis;
+    private final Map<String, HeldLease> heldLeases = new HashMap<String, HeldLease>();
+
+    public GerritPollerLease(File directory, String nodeId) {
+        this(directory, nodeId, 60 * 1000L);
+    }
+
+    GerritPollerLease(File directory, String nodeId, long leaseMillis) {
+        this.directory = directory;
+        this.nodeId = nodeId;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Acquires or renews the lease of the host. Returns the fencing epoch of the lease, or -1 if another node holds it.
+     */
+    public long tryAcquire(String host) {
+        HeldLease held = getHeldLease(host, leaseMillis / 2);
+        if(held != null) {
+            return held.epoch;
+        }
+
+        try {
+            return update(host, true);
+        } catch (IOException e) {
+            LOG.warn("GERRIT: Failed to acquire poller lease of " + host, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Checks that the lease acquired with the epoch is still held by this node.
+     */
+    public boolean isHeld(String host, long epoch) {
+        if(epoch < 0) {
+            return false;
+        }
+
+        // Leaving some margin for the time it takes to publish after the check.
+        HeldLease held = getHeldLease(host, leaseMillis / 4);
+        if(held != null) {
+            return held.epoch == epoch;
+        }
+
+        try {
+            return update(host, false) == epoch;
+        } catch (IOException e) {
+            LOG.warn("GERRIT: Failed to check poller lease of " + host, e);
+            return false;
+        }
+    }
+
+    /**
+     * Gives up the lease, e.g. on shutdown, so that another node can take over without waiting for it to expire.
+     */
+    public void release(String host) {
+        synchronized (heldLeases) {
+            heldLeases.remove(host);
+        }
+
+        try {
+            GerritFileLock lock = GerritFileLock.lock(getLeaseFile(host));
+            try {
+                Lease lease = Lease.read(lock.getFile());
+
+                if(lease != null && lease.nodeId.equals(nodeId)) {
+                    new Lease(nodeId, lease.epoch, 0).write(lock.getFile());
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            LOG.warn("GERRIT: Failed to release poller lease of " + host, e);
+        }
+    }
+
+    /**
+     * Gives up the leases of all the hosts this node has polled.
+     */
+    public void releaseAll() {
+        List<String> hosts;
+
+        synchronized (heldLeases) {
+            hosts = new ArrayList<String>(heldLeases.keySet());
+        }
+
+        for(String host : hosts) {
+            release(host);
+        }
+    }
+
+    private long update(String host, boolean acquire) throws IOException {
+        GerritFileLock lock = GerritFileLock.lock(getLeaseFile(host));
+        try {
+            long now = System.currentTimeMillis();
+            Lease lease = Lease.read(lock.getFile());
+
+            if(lease != null && lease.nodeId.equals(nodeId) && lease.expiresAt > now) {
+                if(acquire) {
+                    new Lease(nodeId, lease.epoch, now + leaseMillis).write(lock.getFile());
+                    putHeldLease(host, lease.epoch, now + leaseMillis);
+                } else {
+                    putHeldLease(host, lease.epoch, lease.expiresAt);
+                }
+
+                return lease.epoch;
+            }
+
+            if(acquire && (lease == null || lease.expiresAt <= now)) {
+                long epoch = lease == null ? 1 : lease.epoch + 1;
+                new Lease(nodeId, epoch, now + leaseMillis).write(lock.getFile());
+                putHeldLease(host, epoch, now + leaseMillis);
+
+                LOG.info(String.format("GERRIT: Node %s is now polling %s (epoch %s).", nodeId, host, epoch));
+                return epoch;
+            }
+
+            synchronized (heldLeases) {
+                heldLeases.remove(host);
+            }
+
+            return -1;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Returns the lease of the host held by this node if it's valid for at least <code>marginMillis</code> more.
+     */
+    private HeldLease getHeldLease(String host, long marginMillis) {
+        synchronized (heldLeases) {
+            HeldLease held = heldLeases.get(host);
+
+            return held != null && held.expiresAt - System.currentTimeMillis() > marginMillis ? held : null;
+        }
+    }
+
+    private void putHeldLease(String host, long epoch, long expiresAt) {
+        synchronized (heldLeases) {
+            heldLeases.put(host, new HeldLease(epoch, expiresAt));
+        }
+    }
+
+    private File getLeaseFile(String host) throws IOException {
+        if(!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        return new File(directory, host.replaceAll("[^A-Za-z0-9._-]", "_") + ".lease");
+    }
+
+    private static class HeldLease {
+        private final long epoch;
+        private final long expiresAt;
+
+        private HeldLease(long epoch, long expiresAt) {
+            this.epoch = epoch;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Lease {
+        private final String nodeId;
+        private final long epoch;
+        private final long expiresAt;
+
+        private Lease(String nodeId, long epoch, long expiresAt) {
+            this.nodeId = nodeId;
+            this.epoch = epoch;
+            this.expiresAt = expiresAt;
+        }
+
+        private static Lease read(RandomAccessFile file) throws IOException {
+            file.seek(0);
+            String line = file.readLine();
+
+            if(line == null) {
+                return null;
+            }
+
+            String[] values = line.trim().split(" ");
+            if(values.length != 3) {
+                return null;
+            }
+
+            try {
+                return new Lease(values[0], Long.parseLong(values[1]), Long.parseLong(values[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private void write(RandomAccessFile file) throws IOException {
+            file.setLength(0);
+            file.seek(0);
+            file.write((nodeId + " " + epoch + " " + expiresAt + "\n").getBytes("UTF-8"));
+            file.getFD().sync();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.saulis;
+
+import java.util.*;
+
+/**
+ * Collapses stacks of dependent changes into their tips.
+ */
+class GerritRelationChains {
+
+    /**
+     * Returns the tips of the chains. The patch sets below each tip are added to <code>ancestors</code>
+     * by the ref of the tip.
+     */
+    public static List<GerritPatchSet> getTips(List<GerritPatchSet> patchSets, Map<String, List<GerritPatchSet>> ancestors) {
+        Map<String, GerritPatchSet> patchSetsByRevision = new HashMap<String, GerritPatchSet>();
+        Set<String> parentRevisions = new HashSet<String>();
+
+        for(GerritPatchSet p : patchSets) {
+            if(p.getRevision() != null) {
+                patchSetsByRevision.put(p.getRevision(), p);
+                parentRevisions.addAll(p.getParents());
+            }
+        }
+
+        List<GerritPatchSet> tips = new ArrayList<GerritPatchSet>();
+        Set<String> coveredRevisions = new HashSet<String>();
+
+        for(GerritPatchSet p : patchSets) {
+            if(p.getRevision() == null || !parentRevisions.contains(p.getRevision())) {
+                List<GerritPatchSet> tipAncestors = new ArrayList<GerritPatchSet>();
+                addAncestors(p, tipAncestors, patchSetsByRevision, coveredRevisions);
+
+                tips.add(p);
+                if(!tipAncestors.isEmpty()) {
+                    ancestors.put(p.getRef(), tipAncestors);
+                }
+            }
+        }
+
+        return tips;
+    }
+
+    private static void addAncestors(GerritPatchSet patchSet, List<GerritPatchSet> ancestors, Map<String, GerritPatchSet> patchSetsByRevision,
+                                     Set<String> coveredRevisions) {
+        for(String parent : patchSet.getParents()) {
+            GerritPatchSet ancestor = patchSetsByRevision.get(parent);
+
+            // Merges can make chains share ancestors, each ancestor is covered by the first tip that reaches it.
+            if(ancestor != null && coveredRevisions.add(parent)) {
+                ancestors.add(ancestor);
+                addAncestors(ancestor, ancestors, patchSetsByRevision, coveredRevisions);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.saulis;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sizes the look back of replica queries and keeps track of what has already been reported.
+ */
+class GerritReplicaOverlap {
+
+    private static final long MIN_LOOKBACK_MILLIS = 60 * 1000L;
+    private static final long MAX_LOOKBACK_MILLIS = 5 * 60 * 1000L;
+    // How long a late patch set keeps the look back wider.
+    private static final long LAG_WINDOW_MILLIS = 60 * 60 * 1000L;
+
+    private final Map<String, TriggerState> triggers = new HashMap<String, TriggerState>();
+    private final Map<String, LinkedList<long[]>> lags = new HashMap<String, LinkedList<long[]>>();
+
+    /**
+     * How far back from the timestamp of a trigger to query the replicas of the host.
+     */
+    public synchronized long getLookbackMillis(String host, long now) {
+        long lag = 0;
+        LinkedList<long[]> samples = lags.get(host);
+
+        if(samples != null) {
+            while(!samples.isEmpty() && samples.getFirst()[0] < now - LAG_WINDOW_MILLIS) {
+                samples.removeFirst();
+            }
+
+            for(long[] sample : samples) {
+                lag = Math.max(lag, sample[1]);
+            }
+        }
+
+        // Twice the lag seen, since the next patch set may be later still.
+        return Math.min(Math.max(MIN_LOOKBACK_MILLIS, 2 * lag), MAX_LOOKBACK_MILLIS);
+    }
+
+    /**
+     * Refs of the patch sets reported to the trigger within the look back.
+     */
+    public synchronized Set<String> getReportedRefs(String triggerKey) {
+        TriggerState state = triggers.get(triggerKey);
+
+        return state == null ? new HashSet<String>() : new HashSet<String>(state.reported.keySet());
+    }
+
+    public synchronized void addReported(String triggerKey, Iterable<GerritPatchSet> patchSets, Date timestamp) {
+        TriggerState state = getState(triggerKey);
+
+        for(GerritPatchSet patchSet : patchSets) {
+            state.reported.put(patchSet.getRef(), patchSet.getCreatedOn().getTime());
+        }
+
+        prune(state, timestamp);
+    }
+
+    /**
+     * Records a completed query of the trigger. Patch sets which were created before the previous query, but weren't
+     * returned by it, showed up late on the replicas of the host.
+     */
+    public synchronized void addQuery(String triggerKey, String host, Date from, long startedAt,
+                                      Iterable<GerritPatchSet> observed, Date timestamp) {
+        TriggerState state = getState(triggerKey);
+
+        for(GerritPatchSet patchSet : observed) {
+            long createdOn = patchSet.getCreatedOn().getTime();
+
+            if(createdOn <= from.getTime() || state.reported.containsKey(patchSet.getRef())) {
+                continue;
+            }
+
+            if(state.previousFrom != null && createdOn > state.previousFrom.getTime() && createdOn < state.previousStartedAt) {
+                addLag(host, startedAt, state.previousStartedAt - createdOn);
+            }
+
+            state.reported.put(patchSet.getRef(), createdOn);
+        }
+
+        state.previousFrom = from;
+        state.previousStartedAt = startedAt;
+        prune(state, timestamp);
+    }
+
+    private void addLag(String host, long now, long lagMillis) {
+        LinkedList<long[]> samples = lags.get(host);
+
+        if(samples == null) {
+            samples = new LinkedList<long[]>();
+            lags.put(host, samples);
+        }
+
+        samples.addLast(new long[] { now, lagMillis });
+    }
+
+    private TriggerState getState(String triggerKey) {
+        TriggerState state = triggers.get(triggerKey);
+
+        if(state == null) {
+            state = new TriggerState();
+            triggers.put(triggerKey, state);
+        }
+
+        return state;
+    }
+
+    private void prune(TriggerState state, Date timestamp) {
+        // Patch sets older than the longest look back can't be reported again.
+        long cutoff = timestamp.getTime() - MAX_LOOKBACK_MILLIS;
+
+        for(Iterator<Long> i = state.reported.values().iterator(); i.hasNext(); ) {
+            if(i.next() < cutoff) {
+                i.remove();
+            }
+        }
+    }
+
+    private static class TriggerState {
+        private final Map<String, Long> reported = new HashMap<String, Long>();
+        private Date previousFrom;
+        private long previousStartedAt;
+    }
+}
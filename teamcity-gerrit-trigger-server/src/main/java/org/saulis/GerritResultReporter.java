@@ -0,0 +1,238 @@
+package org.saulis;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import jetbrains.buildServer.log.Loggers;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts build results to Gerrit in batches over pooled sessions.
+ */
+class GerritResultReporter {
+
+    private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritResultReporter.class);
+    private static final long BATCH_WINDOW_MILLIS = 5 * 1000L;
+    private static final int CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+    private static final long COMMAND_TIMEOUT_MILLIS = 30 * 1000L;
+    private static final long POLL_INTERVAL_MILLIS = 50L;
+    private static final int MAX_ATTEMPTS = 3;
+    private final GerritSessionPool sessionPool;
+    private final ScheduledExecutorService executor;
+    private final long batchWindowMillis;
+    private final long commandTimeoutMillis;
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+
+    public GerritResultReporter(GerritSessionPool sessionPool, ScheduledExecutorService executor) {
+        this(sessionPool, executor, BATCH_WINDOW_MILLIS, COMMAND_TIMEOUT_MILLIS);
+    }
+
+    GerritResultReporter(GerritSessionPool sessionPool, ScheduledExecutorService executor, long batchWindowMillis,
+                         long commandTimeoutMillis) {
+        this.sessionPool = sessionPool;
+        this.executor = executor;
+        this.batchWindowMillis = batchWindowMillis;
+        this.commandTimeoutMillis = commandTimeoutMillis;
+    }
+
+    public void report(GerritConnection connection, GerritReview review) {
+        add(connection, new QueuedReview(review));
+    }
+
+    private synchronized void add(GerritConnection connection, QueuedReview review) {
+        final String key = connection.getKey();
+        Batch batch = batches.get(key);
+
+        if(batch == null) {
+            batch = new Batch(connection);
+            batches.put(key, batch);
+
+            try {
+                executor.schedule(new Runnable() {
+                    public void run() {
+                        flush(key, Long.MAX_VALUE);
+                    }
+                }, batchWindowMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, the batch is left to the final flush.
+                LOG.debug("GERRIT: Not scheduling reviews to " + key + ", the server is shutting down.");
+            }
+        }
+
+        batch.reviews.add(review);
+    }
+
+    /**
+     * Sends all collected reviews right away, including the ones which fail and are tried again.
+     */
+    public void flush() {
+        flushUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #flush()}, but drops the reviews which haven't been posted in time.
+     */
+    public void flush(long timeoutMillis) {
+        flushUntil(System.currentTimeMillis() + timeoutMillis);
+
+        int dropped = 0;
+
+        synchronized (this) {
+            for(Batch batch : batches.values()) {
+                dropped += batch.reviews.size();
+            }
+
+            batches.clear();
+        }
+
+        if(dropped > 0) {
+            LOG.warn(String.format("GERRIT: Dropping %s review(s) not posted within %s ms.", dropped, timeoutMillis));
+        }
+    }
+
+    private void flushUntil(long deadline) {
+        while(System.currentTimeMillis() < deadline) {
+            List<String> keys;
+
+            synchronized (this) {
+                keys = new ArrayList<String>(batches.keySet());
+            }
+
+            if(keys.isEmpty()) {
+                return;
+            }
+
+            for(String key : keys) {
+                flush(key, deadline);
+            }
+        }
+    }
+
+    private void flush(String key, long deadline) {
+        Batch batch;
+
+        synchronized (this) {
+            batch = batches.remove(key);
+        }
+
+        if(batch == null) {
+            return;
+        }
+
+        Session session;
+
+        try {
+            session = sessionPool.getSession(batch.connection);
+        } catch (Exception e) {
+            LOG.error(String.format("Gerrit trigger failed while connecting to %s to post %s review(s).",
+                    batch.connection.getHost(), batch.reviews.size()), e);
+            retry(batch.connection, batch.reviews);
+            return;
+        }
+
+        for(int i = 0; i < batch.reviews.size(); i++) {
+            QueuedReview queued = batch.reviews.get(i);
+            long remaining = deadline - System.currentTimeMillis();
+
+            if(remaining <= 0) {
+                // Out of time, not counted as an attempt.
+                for(QueuedReview rest : batch.reviews.subList(i, batch.reviews.size())) {
+                    add(batch.connection, rest);
+                }
+                return;
+            }
+
+            try {
+                send(session, queued.review, Math.min(commandTimeoutMillis, remaining));
+            } catch (Exception e) {
+                LOG.error(String.format("Gerrit trigger failed while posting review of %s,%s to %s.",
+                        queued.review.getChangeNumber(), queued.review.getPatchSetNumber(), batch.connection.getHost()), e);
+
+                // The session may be broken, the rest of the batch is sent over a new one later.
+                sessionPool.invalidate(batch.connection, session);
+                retry(batch.connection, batch.reviews.subList(i, batch.reviews.size()));
+                return;
+            }
+        }
+    }
+
+    private void retry(GerritConnection connection, List<QueuedReview> reviews) {
+        for(QueuedReview queued : reviews) {
+            if(++queued.attempts < MAX_ATTEMPTS) {
+                add(connection, queued);
+            } else {
+                LOG.warn(String.format("GERRIT: Giving up posting review of %s,%s to %s after %s attempts.",
+                        queued.review.getChangeNumber(), queued.review.getPatchSetNumber(), connection.getHost(), queued.attempts));
+            }
+        }
+    }
+
+    private void send(Session session, GerritReview review, long timeoutMillis) throws Exception {
+        ChannelExec channel = (ChannelExec)session.openChannel("exec");
+
+        try {
+            String command = review.toCommand();
+            LOG.debug("GERRIT: " + command);
+
+            channel.setCommand(command);
+            InputStream output = channel.getInputStream();
+            channel.connect(CONNECT_TIMEOUT_MILLIS);
+
+            // A command can hang while the host still answers keepalives, it mustn't hold up the other reviews.
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while(!channel.isClosed()) {
+                if(System.currentTimeMillis() >= deadline) {
+                    throw new JSchException("timeout: review of " + review.getChangeNumber() + "," + review.getPatchSetNumber()
+                            + " didn't finish in " + timeoutMillis + " ms");
+                }
+
+                skipAvailable(output);
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+
+            if(channel.getExitStatus() > 0) {
+                LOG.warn(String.format("GERRIT: Review of %s,%s was rejected (exit status %s).",
+                        review.getChangeNumber(), review.getPatchSetNumber(), channel.getExitStatus()));
+            }
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    private void skipAvailable(InputStream in) throws IOException {
+        // Nothing to do with the output, it's only read so that the command isn't blocked writing it.
+        int available = in.available();
+
+        if(available > 0) {
+            in.skip(available);
+        }
+    }
+
+    private static class QueuedReview {
+        private final GerritReview review;
+        private int attempts;
+
+        private QueuedReview(GerritReview review) {
+            this.review = review;
+        }
+    }
+
+    private static class Batch {
+        private final GerritConnection connection;
+        private final List<QueuedReview> reviews = new ArrayList<QueuedReview>();
+
+        private Batch(GerritConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
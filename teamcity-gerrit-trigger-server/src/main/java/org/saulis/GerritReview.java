@@ -0,0 +1,46 @@
+package org.saulis;
+
+/**
+ * Verified vote and message for a patch set.
+ */
+class GerritReview {
+
+    private final String changeNumber;
+    private final String patchSetNumber;
+    private final boolean verified;
+    private final String message;
+
+    public GerritReview(String changeNumber, String patchSetNumber, boolean verified, String message) {
+        this.changeNumber = changeNumber;
+        this.patchSetNumber = patchSetNumber;
+        this.verified = verified;
+        this.message = message;
+    }
+
+    public String getChangeNumber() {
+        return changeNumber;
+    }
+
+    public String getPatchSetNumber() {
+        return patchSetNumber;
+    }
+
+    public boolean isVerified() {
+        return verified;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String toCommand() {
+        return "gerrit review --verified " + (verified ? "+1" : "-1")
+                + " --message " + quote(message)
+                + " " + changeNumber + "," + patchSetNumber;
+    }
+
+    private static String quote(String value) {
+        // Gerrit splits the command line itself, honouring double quotes and backslash escapes.
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
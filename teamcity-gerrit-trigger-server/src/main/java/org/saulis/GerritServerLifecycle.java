@@ -0,0 +1,127 @@
+package org.saulis;
+
+import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildType;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up Gerrit sessions at startup and closes everything down at shutdown.
+ */
+class GerritServerLifecycle extends BuildServerAdapter {
+
+    private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritServerLifecycle.class);
+    private static final long WARM_UP_INTERVAL_MILLIS = 1000L;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10 * 1000L;
+    private final ProjectManager projectManager;
+    private final String triggerName;
+    private final GerritClient gerritClient;
+    private final GerritSessionPool sessionPool;
+    private final GerritResultReporter resultReporter;
+    private final GerritPollerLease lease;
+    private final ScheduledExecutorService reportExecutor;
+    private final ScheduledExecutorService warmUpExecutor;
+
+    /**
+     * Warm-ups get their own executor, so that a slow host doesn't hold up posting reviews.
+     */
+    public GerritServerLifecycle(ProjectManager projectManager, String triggerName, GerritClient gerritClient,
+                                 GerritSessionPool sessionPool, GerritResultReporter resultReporter,
+                                 GerritPollerLease lease, ScheduledExecutorService reportExecutor,
+                                 ScheduledExecutorService warmUpExecutor) {
+        this.projectManager = projectManager;
+        this.triggerName = triggerName;
+        this.gerritClient = gerritClient;
+        this.sessionPool = sessionPool;
+        this.resultReporter = resultReporter;
+        this.lease = lease;
+        this.reportExecutor = reportExecutor;
+        this.warmUpExecutor = warmUpExecutor;
+    }
+
+    @Override
+    public void serverStartup() {
+        List<GerritConnection> connections = getConnections();
+        LOG.info(String.format("GERRIT: Connecting to %s Gerrit host(s) in the background.", connections.size()));
+
+        // Staggered, so that hosts shared by many triggers aren't hit by all the handshakes at once.
+        for(int i = 0; i < connections.size(); i++) {
+            final GerritConnection connection = connections.get(i);
+
+            warmUpExecutor.schedule(new Runnable() {
+                public void run() {
+                    warmUp(connection);
+                }
+            }, i * WARM_UP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    List<GerritConnection> getConnections() {
+        Map<String, GerritConnection> connections = new LinkedHashMap<String, GerritConnection>();
+
+        for(SBuildType buildType : projectManager.getAllBuildTypes()) {
+            for(BuildTriggerDescriptor trigger : buildType.getBuildTriggersCollection()) {
+                if(!triggerName.equals(trigger.getTriggerName())) {
+                    continue;
+                }
+
+                for(GerritConnection connection : GerritConnection.getTriggerConnections(trigger.getParameters())) {
+                    if(connection.getHost().length() > 0 && !connections.containsKey(connection.getKey())) {
+                        connections.put(connection.getKey(), connection);
+                    }
+                }
+            }
+        }
+
+        return new ArrayList<GerritConnection>(connections.values());
+    }
+
+    private void warmUp(GerritConnection connection) {
+        try {
+            sessionPool.getSession(connection);
+            LOG.debug("GERRIT: Connected to " + connection.getKey());
+        } catch (Exception e) {
+            // Not fatal, the first poll connects again.
+            LOG.warn(String.format("GERRIT: Failed to connect to %s at startup: %s", connection.getKey(), e.getMessage()));
+        }
+    }
+
+    @Override
+    public void serverShutdown() {
+        if(!gerritClient.shutdown(SHUTDOWN_TIMEOUT_MILLIS)) {
+            LOG.warn("GERRIT: Polls still running after " + SHUTDOWN_TIMEOUT_MILLIS + " ms, closing the sessions anyway.");
+        }
+
+        warmUpExecutor.shutdownNow();
+
+        // Letting the flushes already scheduled finish first, so that the final flush doesn't race with them.
+        reportExecutor.shutdown();
+
+        try {
+            if(!reportExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("GERRIT: Reviews still being posted after " + SHUTDOWN_TIMEOUT_MILLIS + " ms, interrupting.");
+                reportExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reportExecutor.shutdownNow();
+        }
+
+        resultReporter.flush(SHUTDOWN_TIMEOUT_MILLIS);
+
+        if(lease != null) {
+            lease.releaseAll();
+        }
+
+        sessionPool.close();
+    }
+}
@@ -0,0 +1,148 @@
+package org.saulis;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import jetbrains.buildServer.log.Loggers;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps one SSH session open per Gerrit login.
+ */
+class GerritSessionPool {
+
+    private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritSessionPool.class);
+    private static final int SSH_PORT = 29418;
+    private static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    // A session is dropped after the host hasn't answered two keepalives in a row, which also ends the commands
+    // waiting for output on it.
+    private static final int SERVER_ALIVE_INTERVAL_MILLIS = 15 * 1000;
+    private static final int SERVER_ALIVE_COUNT_MAX = 2;
+    private final JSch jsch;
+    private final long idleTimeoutMillis;
+    private final int port;
+    private final Map<String, PooledSession> sessions = new HashMap<String, PooledSession>();
+    private final Set<String> identities = new HashSet<String>();
+
+    public GerritSessionPool(JSch jsch) {
+        this(jsch, IDLE_TIMEOUT_MILLIS);
+    }
+
+    GerritSessionPool(JSch jsch, long idleTimeoutMillis) {
+        this(jsch, idleTimeoutMillis, SSH_PORT);
+    }
+
+    GerritSessionPool(JSch jsch, long idleTimeoutMillis, int port) {
+        this.jsch = jsch;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.port = port;
+    }
+
+    public Session getSession(GerritConnection connection) throws JSchException {
+        String key = connection.getKey();
+
+        synchronized (this) {
+            PooledSession pooled = sessions.get(key);
+
+            if(pooled != null) {
+                if(pooled.isUsable()) {
+                    pooled.lastUsed = System.currentTimeMillis();
+                    return pooled.session;
+                }
+
+                sessions.remove(key);
+                pooled.session.disconnect();
+            }
+        }
+
+        // Connecting outside the lock, so that a slow host doesn't hold up the others.
+        Session session = connect(connection);
+
+        synchronized (this) {
+            PooledSession pooled = sessions.get(key);
+
+            if(pooled != null && pooled.isUsable()) {
+                session.disconnect();
+                return pooled.session;
+            }
+
+            sessions.put(key, new PooledSession(session));
+        }
+
+        return session;
+    }
+
+    private Session connect(GerritConnection connection) throws JSchException {
+        synchronized (jsch) {
+            // JSch keeps the identities it has been given, they are added only once per key.
+            String identity = connection.getPrivateKey() + "\n" + connection.getPassphrase();
+
+            if(!identities.contains(identity)) {
+                if(connection.getPassphrase() != null) {
+                    jsch.addIdentity(connection.getPrivateKey(), connection.getPassphrase());
+                } else {
+                    jsch.addIdentity(connection.getPrivateKey());
+                }
+
+                identities.add(identity);
+            }
+        }
+
+        LOG.debug("GERRIT: Connecting to " + connection.getKey());
+
+        Session session = jsch.getSession(connection.getUsername(), connection.getHost(), port);
+        session.setConfig("StrictHostKeyChecking", "no");
+        session.setServerAliveInterval(SERVER_ALIVE_INTERVAL_MILLIS);
+        session.setServerAliveCountMax(SERVER_ALIVE_COUNT_MAX);
+        session.connect(CONNECT_TIMEOUT_MILLIS);
+
+        return session;
+    }
+
+    /**
+     * Drops a session after an error on it, the next user connects again. Does nothing if the session has already
+     * been replaced, e.g. by another user which failed on it first.
+     */
+    public synchronized void invalidate(GerritConnection connection, Session session) {
+        PooledSession pooled = sessions.get(connection.getKey());
+
+        if(pooled != null && pooled.session == session) {
+            sessions.remove(connection.getKey());
+            session.disconnect();
+        }
+    }
+
+    public void close() {
+        List<PooledSession> closed;
+
+        synchronized (this) {
+            closed = new ArrayList<PooledSession>(sessions.values());
+            sessions.clear();
+        }
+
+        for(PooledSession pooled : closed) {
+            pooled.session.disconnect();
+        }
+    }
+
+    private class PooledSession {
+        private final Session session;
+        private long lastUsed = System.currentTimeMillis();
+
+        private PooledSession(Session session) {
+            this.session = session;
+        }
+
+        private boolean isUsable() {
+            return session.isConnected() && System.currentTimeMillis() - lastUsed < idleTimeoutMillis;
+        }
+    }
+}
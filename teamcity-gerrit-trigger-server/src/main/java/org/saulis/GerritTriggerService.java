@@ -5,11 +5,20 @@ import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.buildTriggers.BuildTriggerService;
 import jetbrains.buildServer.buildTriggers.BuildTriggeringPolicy;
 import jetbrains.buildServer.serverSide.BuildCustomizerFactory;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.web.openapi.PluginDescriptor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 public class GerritTriggerService extends BuildTriggerService {
 
@@ -18,14 +27,42 @@ public class GerritTriggerService extends BuildTriggerService {
     @NotNull
     private final PluginDescriptor pluginDescriptor;
     private final GerritClient gerritClient;
+    private final GerritVerifiedPatchSets verifiedPatchSets;
     private GerritPolledBuildTrigger triggerPolicy;
 
     public GerritTriggerService(@NotNull final BuildCustomizerFactory buildCustomizerFactory,
-                                @NotNull final PluginDescriptor pluginDescriptor) {
+                                @NotNull final PluginDescriptor pluginDescriptor,
+                                @NotNull final ServerPaths serverPaths,
+                                @NotNull final EventDispatcher<BuildServerListener> eventDispatcher,
+                                @NotNull final ProjectManager projectManager) {
 
         this.buildCustomizerFactory = buildCustomizerFactory;
         this.pluginDescriptor = pluginDescriptor;
-        gerritClient = new GerritClient(new JSch());
+        File dataDirectory = new File(serverPaths.getPluginDataDirectory(), "gerrit-trigger");
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(createThreadFactory("Gerrit trigger"));
+        ScheduledExecutorService warmUpExecutor = Executors.newSingleThreadScheduledExecutor(
+                createThreadFactory("Gerrit trigger warm-up"));
+
+        GerritSessionPool sessionPool = new GerritSessionPool(new JSch());
+        GerritPollerLease lease = new GerritPollerLease(new File(dataDirectory, "leases"), UUID.randomUUID().toString());
+        gerritClient = new GerritClient(sessionPool, new GerritEventJournal(new File(dataDirectory, "journal"), lease), lease,
+                new GerritPollRecorder(new File(dataDirectory, "traces")));
+
+        verifiedPatchSets = new GerritVerifiedPatchSets(new File(dataDirectory, "verified"));
+        GerritResultReporter resultReporter = new GerritResultReporter(sessionPool, executor);
+        eventDispatcher.addListener(new GerritBuildListener(verifiedPatchSets, resultReporter));
+        eventDispatcher.addListener(new GerritServerLifecycle(projectManager, getName(), gerritClient, sessionPool,
+                resultReporter, lease, executor, warmUpExecutor));
+    }
+
+    private static ThreadFactory createThreadFactory(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
     }
 
     @NotNull
@@ -59,7 +96,12 @@ public class GerritTriggerService extends BuildTriggerService {
             }
         }
 
-        description.append(" on " + parameters.get(Parameters.HOST));
+        description.append(" on " + GerritPolledTriggerContext.getPrimaryHost(parameters));
+
+        int replicas = GerritPolledTriggerContext.getReplicaHosts(parameters).size();
+        if(replicas > 0) {
+            description.append(" (" + replicas + (replicas == 1 ? " replica)" : " replicas)"));
+        }
 
         return description.toString();
     }
@@ -88,7 +130,7 @@ public class GerritTriggerService extends BuildTriggerService {
     @Override
     public BuildTriggeringPolicy getBuildTriggeringPolicy() {
         if(triggerPolicy == null) {
-            triggerPolicy = new GerritPolledBuildTrigger(gerritClient, buildCustomizerFactory);
+            triggerPolicy = new GerritPolledBuildTrigger(gerritClient, buildCustomizerFactory, verifiedPatchSets);
         }
 
         return triggerPolicy;
@@ -0,0 +1,161 @@
+package org.saulis;
+
+import jetbrains.buildServer.log.Loggers;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Index of patch sets which have been built successfully, one file per build type.
+ */
+class GerritVerifiedPatchSets {
+
+    private static final Logger LOG = Logger.getLogger(Loggers.VCS_CATEGORY + GerritVerifiedPatchSets.class);
+    private static final int MAX_ENTRIES = 2000;
+
+    private final File directory;
+    private final Map<String, LinkedHashSet<String>> entriesByBuildType = new HashMap<String, LinkedHashSet<String>>();
+    private final Map<String, Integer> lineCounts = new HashMap<String, Integer>();
+
+    public GerritVerifiedPatchSets(File directory) {
+        this.directory = directory;
+    }
+
+    public synchronized boolean isVerified(String buildTypeId, GerritPatchSet patchSet) {
+        Set<String> entries = getEntries(buildTypeId);
+
+        if(patchSet.getRevision() != null && entries.contains(patchSet.getRevision())) {
+            return true;
+        }
+
+        if(("NO_CODE_CHANGE".equals(patchSet.getKind()) || "NO_CHANGE".equals(patchSet.getKind()))
+                && patchSet.getChangeNumber() != null && patchSet.getPatchSetNumber() != null) {
+            try {
+                int previous = Integer.parseInt(patchSet.getPatchSetNumber()) - 1;
+
+                return entries.contains(getPatchSetKey(patchSet.getProject(), patchSet.getChangeNumber(), String.valueOf(previous)));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    public synchronized void addVerified(String buildTypeId, GerritPatchSet patchSet) {
+        addVerified(buildTypeId, patchSet.getProject(), patchSet.getChangeNumber(), patchSet.getPatchSetNumber(), patchSet.getRevision());
+    }
+
+    public synchronized void addVerified(String buildTypeId, String project, String changeNumber, String patchSetNumber, String revision) {
+        List<String> newEntries = new ArrayList<String>();
+
+        if(revision != null) {
+            newEntries.add(revision);
+        }
+
+        if(project != null && changeNumber != null && patchSetNumber != null) {
+            newEntries.add(getPatchSetKey(project, changeNumber, patchSetNumber));
+        }
+
+        LinkedHashSet<String> entries = getEntries(buildTypeId);
+        for(String entry : newEntries) {
+            add(entries, entry);
+        }
+
+        try {
+            int lineCount = lineCounts.get(buildTypeId) + newEntries.size();
+
+            if(lineCount > MAX_ENTRIES * 2) {
+                // Compacting the file down to the entries still kept in memory.
+                write(buildTypeId, entries, false);
+                lineCount = entries.size();
+            } else {
+                write(buildTypeId, newEntries, true);
+            }
+
+            lineCounts.put(buildTypeId, lineCount);
+        } catch (IOException e) {
+            LOG.warn("GERRIT: Failed to store verified patch set " + revision, e);
+        }
+    }
+
+    private void add(LinkedHashSet<String> entries, String entry) {
+        entries.remove(entry);
+        entries.add(entry);
+
+        if(entries.size() > MAX_ENTRIES) {
+            Iterator<String> i = entries.iterator();
+            i.next();
+            i.remove();
+        }
+    }
+
+    private String getPatchSetKey(String project, String changeNumber, String patchSetNumber) {
+        return project + "/" + changeNumber + "/" + patchSetNumber;
+    }
+
+    private LinkedHashSet<String> getEntries(String buildTypeId) {
+        LinkedHashSet<String> entries = entriesByBuildType.get(buildTypeId);
+
+        if(entries == null) {
+            entries = new LinkedHashSet<String>();
+            int lineCount = 0;
+
+            try {
+                lineCount = read(buildTypeId, entries);
+            } catch (IOException e) {
+                LOG.warn("GERRIT: Failed to read verified patch sets of " + buildTypeId, e);
+            }
+
+            entriesByBuildType.put(buildTypeId, entries);
+            lineCounts.put(buildTypeId, lineCount);
+        }
+
+        return entries;
+    }
+
+    private File getFile(String buildTypeId) {
+        return new File(directory, buildTypeId + ".verified");
+    }
+
+    private int read(String buildTypeId, LinkedHashSet<String> entries) throws IOException {
+        File file = getFile(buildTypeId);
+        int lineCount = 0;
+
+        if(!file.exists()) {
+            return lineCount;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.length() > 0) {
+                    add(entries, line);
+                    lineCount++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return lineCount;
+    }
+
+    private void write(String buildTypeId, Collection<String> entries, boolean append) throws IOException {
+        if(!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(getFile(buildTypeId), append), "UTF-8");
+        try {
+            for(String entry : entries) {
+                writer.write(entry);
+                writer.write("\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -7,4 +7,18 @@ public class Parameters {
     public static final String HOST = "gerrit.host";
     public static final String PASSPHRASE = "gerrit.passphrase";
     public static final String KEYPATH = "gerrit.keypath";
+    public static final String SKIP_TRIVIAL_CHANGES = "gerrit.skipTrivialChanges";
+    public static final String PRIORITY = "gerrit.priority";
+    public static final String MAX_BUILDS_PER_POLL = "gerrit.maxBuildsPerPoll";
+    public static final String PROJECT_WEIGHTS = "gerrit.projectWeights";
+    public static final String DEBOUNCE = "gerrit.debounce";
+    public static final String DEBOUNCE_MAX_WAIT = "gerrit.debounceMaxWait";
+    public static final String INCLUDE_PATHS = "gerrit.includePaths";
+    public static final String EXCLUDE_PATHS = "gerrit.excludePaths";
+    public static final String BUILD_CHAIN_TIPS_ONLY = "gerrit.buildChainTipsOnly";
+    public static final String REUSE_VERIFIED_RESULTS = "gerrit.reuseVerifiedResults";
+    public static final String REPORT_RESULTS = "gerrit.reportResults";
+    public static final String SKIP_UNMERGEABLE = "gerrit.skipUnmergeable";
+    public static final String SKIP_VERIFIED = "gerrit.skipVerified";
+    public static final String RECORD_POLLS = "gerrit.recordPolls";
 }
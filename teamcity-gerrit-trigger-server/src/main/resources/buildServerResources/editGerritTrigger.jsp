@@ -15,6 +15,7 @@
        <props:textProperty name="<%=Parameters.HOST%>" style="width:100%;"/>
       <span class="smallNote">
           Example: dev.gerrit.com<br/>
+          Read replicas can be listed after the primary host, e.g. dev.gerrit.com, replica1.gerrit.com<br/>
       </span>
         <span class="error" id="error_<%=Parameters.HOST%>"></span>
     </td>
@@ -58,3 +59,144 @@
         <props:textProperty name="<%=Parameters.BRANCH%>" style="width:10em;"/>
     </td>
 </tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.SKIP_TRIVIAL_CHANGES%>">Skip trivial changes: </label></td>
+    <td>
+        <props:checkboxProperty name="<%=Parameters.SKIP_TRIVIAL_CHANGES%>"/>
+        <span class="smallNote">
+            Don't trigger builds for trivial rebases and patchsets that change only the commit message.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.PRIORITY%>">Priority: </label></td>
+    <td>
+        <props:selectProperty name="<%=Parameters.PRIORITY%>">
+            <props:option value="">In order of detection</props:option>
+            <props:option value="age">Oldest patchset first</props:option>
+            <props:option value="firstPatchSet">First patchsets before follow-ups</props:option>
+        </props:selectProperty>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.MAX_BUILDS_PER_POLL%>">Max builds per project per poll: </label></td>
+    <td>
+        <props:textProperty name="<%=Parameters.MAX_BUILDS_PER_POLL%>" style="width:5em;"/>
+        <span class="smallNote">
+            Patchsets over the limit are added to the queue on the next poll. Leave empty for no limit.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.PROJECT_WEIGHTS%>">Project weights: </label></td>
+    <td>
+        <props:textProperty name="<%=Parameters.PROJECT_WEIGHTS%>" style="width:100%;"/>
+        <span class="smallNote">
+            Example: big-project=3, small-project=1<br/>
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.DEBOUNCE%>">Quiet period (seconds): </label></td>
+    <td>
+        <props:textProperty name="<%=Parameters.DEBOUNCE%>" style="width:5em;"/>
+        <span class="smallNote">
+            Wait until a change has had no new patchsets for this long and build only the newest one. Leave empty to build every patchset.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.DEBOUNCE_MAX_WAIT%>">Max quiet period wait (seconds): </label></td>
+    <td>
+        <props:textProperty name="<%=Parameters.DEBOUNCE_MAX_WAIT%>" style="width:5em;"/>
+        <span class="smallNote">
+            Build the newest patchset at the latest after this long. Default: 5 x quiet period.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.INCLUDE_PATHS%>">Include paths: </label></td>
+    <td>
+        <props:multilineProperty name="<%=Parameters.INCLUDE_PATHS%>" linkTitle="Edit include paths" cols="49" rows="3"/>
+        <span class="smallNote">
+            Newline or comma separated globs, e.g. src/**/*.java. Trigger only when a matching file is changed. Leave empty to include all files.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.EXCLUDE_PATHS%>">Exclude paths: </label></td>
+    <td>
+        <props:multilineProperty name="<%=Parameters.EXCLUDE_PATHS%>" linkTitle="Edit exclude paths" cols="49" rows="3"/>
+        <span class="smallNote">
+            Newline or comma separated globs, e.g. docs or **/*.md. Changes to matching files alone don't trigger a build.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.BUILD_CHAIN_TIPS_ONLY%>">Build only tips of relation chains: </label></td>
+    <td>
+        <props:checkboxProperty name="<%=Parameters.BUILD_CHAIN_TIPS_ONLY%>"/>
+        <span class="smallNote">
+            When dependent changes are uploaded together, build only the topmost one.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.REUSE_VERIFIED_RESULTS%>">Reuse successful results: </label></td>
+    <td>
+        <props:checkboxProperty name="<%=Parameters.REUSE_VERIFIED_RESULTS%>"/>
+        <span class="smallNote">
+            Don't build a patchset if the same code has already been built successfully in this configuration.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.REPORT_RESULTS%>">Report results: </label></td>
+    <td>
+        <props:checkboxProperty name="<%=Parameters.REPORT_RESULTS%>"/>
+        <span class="smallNote">
+            Vote Verified +1/-1 on the patchset with a message when its build finishes. The user needs permission to vote Verified.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.SKIP_UNMERGEABLE%>">Skip unmergeable changes: </label></td>
+    <td>
+        <props:checkboxProperty name="<%=Parameters.SKIP_UNMERGEABLE%>"/>
+        <span class="smallNote">
+            Don't build changes which Gerrit reports as not mergeable. Requires Gerrit support for the is:mergeable search.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.SKIP_VERIFIED%>">Skip verified changes: </label></td>
+    <td>
+        <props:checkboxProperty name="<%=Parameters.SKIP_VERIFIED%>"/>
+        <span class="smallNote">
+            Don't build patchsets which already have a Verified vote from the trigger user.
+        </span>
+    </td>
+</tr>
+
+<tr class="noBorder" >
+    <td><label for="<%=Parameters.RECORD_POLLS%>">Record polls: </label></td>
+    <td>
+        <props:checkboxProperty name="<%=Parameters.RECORD_POLLS%>"/>
+        <span class="smallNote">
+            Write timings and query output of every poll under the plugin data directory for diagnosing slow polls. The last 100 polls are kept.
+        </span>
+    </td>
+</tr>
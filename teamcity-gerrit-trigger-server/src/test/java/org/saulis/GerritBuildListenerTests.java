@@ -0,0 +1,156 @@
+package org.saulis;
+
+import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class GerritBuildListenerTests {
+
+    private GerritBuildListener sut;
+    private GerritVerifiedPatchSets verifiedPatchSets;
+    private GerritResultReporter resultReporter;
+    private SRunningBuild build;
+    private HashMap<String, String> parameters;
+    private HashMap<String, String> triggerParameters;
+
+    @Before
+    public void setup() {
+        verifiedPatchSets = mock(GerritVerifiedPatchSets.class);
+        resultReporter = mock(GerritResultReporter.class);
+        sut = new GerritBuildListener(verifiedPatchSets, resultReporter);
+
+        build = mock(SRunningBuild.class);
+        BuildPromotion buildPromotion = mock(BuildPromotion.class);
+        parameters = new HashMap<String, String>();
+
+        when(build.getBuildTypeId()).thenReturn("bt1");
+        when(build.getBuildPromotion()).thenReturn(buildPromotion);
+        when(buildPromotion.getCustomParameters()).thenReturn(parameters);
+
+        SBuildType buildType = mock(SBuildType.class);
+        BuildTriggerDescriptor trigger = mock(BuildTriggerDescriptor.class);
+        triggerParameters = new HashMap<String, String>();
+
+        when(build.getBuildType()).thenReturn(buildType);
+        when(build.getBuildNumber()).thenReturn("42");
+        when(buildType.getFullName()).thenReturn("Project :: Build");
+        when(buildType.getBuildTriggersCollection()).thenReturn(Arrays.asList(trigger));
+        when(trigger.getId()).thenReturn("TRIGGER_1");
+        when(trigger.getParameters()).thenReturn(triggerParameters);
+    }
+
+    private void setPatchSetParameters() {
+        parameters.put(BuildParameters.PROJECT, "project");
+        parameters.put(BuildParameters.CHANGE_NUMBER, "2448");
+        parameters.put(BuildParameters.PATCHSET_NUMBER, "7");
+        parameters.put(BuildParameters.REVISION, "abc");
+        parameters.put(BuildParameters.TRIGGER_ID, "TRIGGER_1");
+    }
+
+    private void setReportResults() {
+        triggerParameters.put(Parameters.REPORT_RESULTS, "true");
+        triggerParameters.put(Parameters.HOST, "primary.com, replica.com");
+        triggerParameters.put(Parameters.USERNAME, "builder");
+    }
+
+    @Test
+    public void successfulPatchSetBuildIsRecorded() {
+        setPatchSetParameters();
+        when(build.getBuildStatus()).thenReturn(Status.NORMAL);
+
+        sut.buildFinished(build);
+
+        verify(verifiedPatchSets).addVerified("bt1", "project", "2448", "7", "abc");
+    }
+
+    @Test
+    public void failedBuildIsNotRecorded() {
+        parameters.put(BuildParameters.REVISION, "abc");
+        when(build.getBuildStatus()).thenReturn(Status.FAILURE);
+
+        sut.buildFinished(build);
+
+        verify(verifiedPatchSets, never()).addVerified(anyString(), anyString(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void buildNotTriggeredByGerritIsNotRecorded() {
+        when(build.getBuildStatus()).thenReturn(Status.NORMAL);
+
+        sut.buildFinished(build);
+
+        verifyZeroInteractions(verifiedPatchSets);
+        verifyZeroInteractions(resultReporter);
+    }
+
+    @Test
+    public void resultIsNotReportedByDefault() {
+        setPatchSetParameters();
+        when(build.getBuildStatus()).thenReturn(Status.NORMAL);
+
+        sut.buildFinished(build);
+
+        verifyZeroInteractions(resultReporter);
+    }
+
+    @Test
+    public void resultIsReportedToPrimaryHost() {
+        setPatchSetParameters();
+        setReportResults();
+        when(build.getBuildStatus()).thenReturn(Status.FAILURE);
+
+        sut.buildFinished(build);
+
+        ArgumentCaptor<GerritConnection> connection = ArgumentCaptor.forClass(GerritConnection.class);
+        ArgumentCaptor<GerritReview> review = ArgumentCaptor.forClass(GerritReview.class);
+        verify(resultReporter).report(connection.capture(), review.capture());
+
+        assertThat(connection.getValue().getKey(), is("builder@primary.com"));
+        assertThat(review.getValue().toCommand(),
+                is("gerrit review --verified -1 --message \"Build Project :: Build #42 failed.\" 2448,7"));
+    }
+
+    @Test
+    public void resultIsReportedToChainAncestors() {
+        setPatchSetParameters();
+        setReportResults();
+        parameters.put(BuildParameters.CHAIN_PATCHSETS, "2446,3 2447,1");
+        when(build.getBuildStatus()).thenReturn(Status.NORMAL);
+
+        sut.buildFinished(build);
+
+        ArgumentCaptor<GerritReview> review = ArgumentCaptor.forClass(GerritReview.class);
+        verify(resultReporter, times(3)).report(any(GerritConnection.class), review.capture());
+
+        assertThat(review.getAllValues().get(1).toCommand(),
+                is("gerrit review --verified +1 --message \"Build Project :: Build #42 succeeded.\" 2446,3"));
+        assertThat(review.getAllValues().get(2).toCommand(),
+                is("gerrit review --verified +1 --message \"Build Project :: Build #42 succeeded.\" 2447,1"));
+    }
+
+    @Test
+    public void resultIsNotReportedForOtherTrigger() {
+        setPatchSetParameters();
+        setReportResults();
+        parameters.put(BuildParameters.TRIGGER_ID, "TRIGGER_2");
+        when(build.getBuildStatus()).thenReturn(Status.NORMAL);
+
+        sut.buildFinished(build);
+
+        verify(resultReporter, never()).report(any(GerritConnection.class), any(GerritReview.class));
+    }
+}
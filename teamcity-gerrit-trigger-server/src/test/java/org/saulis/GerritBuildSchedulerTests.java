@@ -0,0 +1,191 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GerritBuildSchedulerTests {
+
+    private GerritBuildScheduler sut;
+    private GerritPolledTriggerContext context;
+    private List<GerritPatchSet> patchSets;
+    private HashMap<String, Integer> weights;
+    private long now = 1000000L;
+
+    @Before
+    public void setup() {
+        sut = new GerritBuildScheduler();
+        patchSets = new ArrayList<GerritPatchSet>();
+        weights = new HashMap<String, Integer>();
+        context = mockContext("bt1/TRIGGER_1");
+    }
+
+    private GerritPolledTriggerContext mockContext(String triggerKey) {
+        GerritPolledTriggerContext context = mock(GerritPolledTriggerContext.class);
+        final List<GerritPatchSet> deferred = new ArrayList<GerritPatchSet>();
+
+        when(context.getTriggerKey()).thenReturn(triggerKey);
+        when(context.getPriority()).thenReturn("");
+        when(context.getProjectWeights()).thenReturn(weights);
+        when(context.getDeferredPatchSets()).thenAnswer(new Answer<List<GerritPatchSet>>() {
+            public List<GerritPatchSet> answer(InvocationOnMock invocation) {
+                return new ArrayList<GerritPatchSet>(deferred);
+            }
+        });
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                deferred.clear();
+                deferred.addAll((List<GerritPatchSet>)invocation.getArguments()[0]);
+
+                return null;
+            }
+        }).when(context).setDeferredPatchSets(anyList());
+
+        return context;
+    }
+
+    private void addPatchSet(String project, String ref, String patchSetNumber, long createdOn) {
+        addPatchSet(project, ref, patchSetNumber, createdOn, "REWORK");
+    }
+
+    private void addPatchSet(String project, String ref, String patchSetNumber, long createdOn, String kind) {
+        patchSets.add(new GerritPatchSet.Builder(project, "master", ref, createdOn)
+                .changeNumber("1")
+                .patchSetNumber(patchSetNumber)
+                .kind(kind)
+                .build());
+    }
+
+    private List<String> schedule() {
+        return schedule(context);
+    }
+
+    private List<String> schedule(GerritPolledTriggerContext context) {
+        List<String> refs = new ArrayList<String>();
+
+        for(GerritPatchSet p : sut.schedule(context, patchSets, now)) {
+            refs.add(p.getRef());
+        }
+
+        return refs;
+    }
+
+    private List<String> refs(String... refs) {
+        List<String> list = new ArrayList<String>();
+
+        for(String ref : refs) {
+            list.add(ref);
+        }
+
+        return list;
+    }
+
+    @Test
+    public void orderIsKeptByDefault() {
+        addPatchSet("foo", "a", "2", 2000L);
+        addPatchSet("foo", "b", "1", 1000L);
+
+        assertThat(schedule(), is(refs("a", "b")));
+    }
+
+    @Test
+    public void oldestPatchSetIsScheduledFirst() {
+        when(context.getPriority()).thenReturn(GerritBuildScheduler.PRIORITY_AGE);
+        addPatchSet("foo", "a", "2", 2000L);
+        addPatchSet("foo", "b", "1", 1000L);
+
+        assertThat(schedule(), is(refs("b", "a")));
+    }
+
+    @Test
+    public void firstPatchSetIsScheduledFirst() {
+        when(context.getPriority()).thenReturn(GerritBuildScheduler.PRIORITY_FIRST_PATCH_SET);
+        addPatchSet("foo", "a", "3", 1000L);
+        addPatchSet("foo", "b", "1", 2000L);
+
+        assertThat(schedule(), is(refs("b", "a")));
+    }
+
+    @Test
+    public void trivialPatchSetIsScheduledLast() {
+        addPatchSet("foo", "a", "2", 1000L, "TRIVIAL_REBASE");
+        addPatchSet("foo", "b", "2", 2000L);
+
+        assertThat(schedule(), is(refs("b", "a")));
+    }
+
+    @Test
+    public void projectsAreInterleaved() {
+        addPatchSet("noisy", "a", "1", 1000L);
+        addPatchSet("noisy", "b", "1", 1000L);
+        addPatchSet("noisy", "c", "1", 1000L);
+        addPatchSet("quiet", "d", "1", 1000L);
+
+        assertThat(schedule(), is(refs("a", "d", "b", "c")));
+    }
+
+    @Test
+    public void projectWeightIsUsedWhenInterleaving() {
+        weights.put("noisy", 2);
+        addPatchSet("noisy", "a", "1", 1000L);
+        addPatchSet("noisy", "b", "1", 1000L);
+        addPatchSet("noisy", "c", "1", 1000L);
+        addPatchSet("quiet", "d", "1", 1000L);
+
+        assertThat(schedule(), is(refs("a", "b", "d", "c")));
+    }
+
+    @Test
+    public void patchSetsOverTheLimitAreDeferred() {
+        when(context.getMaxBuildsPerPoll()).thenReturn(1);
+        addPatchSet("noisy", "a", "1", 1000L);
+        addPatchSet("noisy", "b", "1", 1000L);
+        addPatchSet("quiet", "c", "1", 1000L);
+
+        assertThat(schedule(), is(refs("a", "c")));
+
+        patchSets.clear();
+        assertThat(schedule(), is(refs("b")));
+    }
+
+    @Test
+    public void deferredPatchSetIsNotScheduledTwice() {
+        when(context.getMaxBuildsPerPoll()).thenReturn(1);
+        addPatchSet("noisy", "a", "1", 1000L);
+        addPatchSet("noisy", "b", "1", 1000L);
+
+        assertThat(schedule(), is(refs("a")));
+
+        // Reported again, e.g. by a lagging replica.
+        patchSets.clear();
+        addPatchSet("noisy", "b", "1", 1000L);
+        assertThat(schedule(), is(refs("b")));
+    }
+
+    @Test
+    public void buildsQueuedByOtherTriggersCountAgainstTheLimit() {
+        GerritPolledTriggerContext other = mockContext("bt2/TRIGGER_1");
+        when(context.getMaxBuildsPerPoll()).thenReturn(1);
+        addPatchSet("noisy", "a", "1", 1000L);
+
+        schedule();
+        now += 1000L;
+        sut.addQueuedBuild(other, patchSets.get(0), now);
+        now += 1000L;
+
+        assertThat(schedule(), is(refs()));
+        assertThat(schedule(), is(refs("a")));
+    }
+}
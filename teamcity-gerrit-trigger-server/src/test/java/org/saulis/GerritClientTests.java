@@ -9,22 +9,32 @@ import jetbrains.buildServer.serverSide.CustomDataStorage;
 import org.hamcrest.core.IsNot;
 import org.hamcrest.core.StringContains;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
 
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 public class GerritClientTests {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private GerritClient client;
     private JSch jsch;
     private GerritPolledTriggerContext context;
@@ -32,6 +42,8 @@ public class GerritClientTests {
     private ChannelExec channel;
     private int sshPort = 29418;
 
+    private static final String SAMPLE_OUTPUT = "{\"project\":\"abraham\",\"branch\":\"bush\",\"id\":\"I56f19c5af7dc4ccfd2fa4c9098f06e77dbfa12fb\",\"number\":\"2448\",\"subject\":\"Add support for monkey facets (#43245)\",\"owner\":{\"name\":\"Don Johnson\",\"email\":\"vice@miami.gov.us\",\"username\":\"don\"},\"url\":\"https://dev.miami.com/review/2448\",\"commitMessage\":\"Add support for blah blah (#12645)\\n\\nSince this is quite the change, I\\u0027ve taken the opportunity to rewrite smaller\\nadjoining pieces to make more sense. Move methods from classes, and so on.\\nThese changes are, however, only on the code level, no other functionality will\\nbe introduced by this patch.\\n\\nChange-Id: I56f19c5af7dc4ccfd2fa4c9098f06e77dbfa12fb\\n\",\"createdOn\":1389255476,\"lastUpdated\":1392802081,\"sortKey\":\"002b3a9800000990\",\"open\":true,\"status\":\"NEW\",\"currentPatchSet\":{\"number\":\"7\",\"revision\":\"15b1316507acd69bc7398643ddfad68efd6ded67\",\"parents\":[\"5733fbda77f1dfdfdde57e596a79260d1e9eb549\"],\"ref\":\"refs/changes/48/2448/7\",\"uploader\":{\"name\":\"Don Johnson\",\"email\":\"vice@miami.gov.us\",\"username\":\"donson\"},\"createdOn\":1390482249,\"author\":{\"name\":\"Don Johnson\",\"email\":\"vice@miami.gov.us\",\"username\":\"donnnnss\"},\"isDraft\":false,\"approvals\":[{\"type\":\"Code-Review\",\"description\":\"Code-Review\",\"value\":\"-1\",\"grantedOn\":1392802081,\"by\":{\"name\":\"John Foobars\",\"email\":\"john@miami.gov.us\",\"username\":\"johnfoos\"}}],\"sizeInsertions\":490,\"sizeDeletions\":-109}}\n{\"type\":\"stats\",\"rowCount\":1,\"runTimeMilliseconds\":10}";
+
     void mockDepedencies() {
         jsch = mock(JSch.class);
     }
@@ -40,7 +52,7 @@ public class GerritClientTests {
     public void setup() throws JSchException, IOException {
         mockDepedencies();
 
-        client = new GerritClient(jsch);
+        client = new GerritClient(new GerritSessionPool(jsch), new GerritHostHealth(), new GerritHostSelector(), null, null, 2, 0L);
 
         context = mock(GerritPolledTriggerContext.class);
         session = mock(Session.class);
@@ -50,12 +62,24 @@ public class GerritClientTests {
         when(session.openChannel("exec")).thenReturn(channel);
 
         when(channel.getErrStream()).thenReturn(new ByteArrayInputStream( "".getBytes() ));
-        when(channel.getInputStream()).thenReturn(new ByteArrayInputStream("{\"project\":\"abraham\",\"branch\":\"bush\",\"id\":\"I56f19c5af7dc4ccfd2fa4c9098f06e77dbfa12fb\",\"number\":\"2448\",\"subject\":\"Add support for monkey facets (#43245)\",\"owner\":{\"name\":\"Don Johnson\",\"email\":\"vice@miami.gov.us\",\"username\":\"don\"},\"url\":\"https://dev.miami.com/review/2448\",\"commitMessage\":\"Add support for blah blah (#12645)\\n\\nSince this is quite the change, I\\u0027ve taken the opportunity to rewrite smaller\\nadjoining pieces to make more sense. Move methods from classes, and so on.\\nThese changes are, however, only on the code level, no other functionality will\\nbe introduced by this patch.\\n\\nChange-Id: I56f19c5af7dc4ccfd2fa4c9098f06e77dbfa12fb\\n\",\"createdOn\":1389255476,\"lastUpdated\":1392802081,\"sortKey\":\"002b3a9800000990\",\"open\":true,\"status\":\"NEW\",\"currentPatchSet\":{\"number\":\"7\",\"revision\":\"15b1316507acd69bc7398643ddfad68efd6ded67\",\"parents\":[\"5733fbda77f1dfdfdde57e596a79260d1e9eb549\"],\"ref\":\"refs/changes/48/2448/7\",\"uploader\":{\"name\":\"Don Johnson\",\"email\":\"vice@miami.gov.us\",\"username\":\"donson\"},\"createdOn\":1390482249,\"author\":{\"name\":\"Don Johnson\",\"email\":\"vice@miami.gov.us\",\"username\":\"donnnnss\"},\"isDraft\":false,\"approvals\":[{\"type\":\"Code-Review\",\"description\":\"Code-Review\",\"value\":\"-1\",\"grantedOn\":1392802081,\"by\":{\"name\":\"John Foobars\",\"email\":\"john@miami.gov.us\",\"username\":\"johnfoos\"}}],\"sizeInsertions\":490,\"sizeDeletions\":-109}}\n{\"type\":\"stats\",\"rowCount\":1,\"runTimeMilliseconds\":10}".getBytes()));
+        setQueryOutput(SAMPLE_OUTPUT);
 
         Calendar calendar = new GregorianCalendar(2013, 0, 1);
         setTimeStamp(String.valueOf(calendar.getTime().getTime()));
     }
 
+    private void setQueryOutput(String output) throws IOException {
+        when(channel.getInputStream()).thenReturn(new ByteArrayInputStream(output.getBytes()));
+    }
+
+    private void setPatchSetKind(String kind) throws IOException {
+        setQueryOutput(SAMPLE_OUTPUT.replace("\"isDraft\"", "\"kind\":\"" + kind + "\",\"isDraft\""));
+    }
+
+    private void setSkipTrivialChanges() {
+        when(context.isSkipTrivialChanges()).thenReturn(true);
+    }
+
     private void assertThatCommandContains(String expected) {
         verify(channel).setCommand(argThat(StringContains.containsString(expected)));
     }
@@ -156,6 +180,20 @@ public class GerritClientTests {
         assertThat(patchset.getCreatedOn(), is(new Date(1390482249000L)));
     }
 
+    @Test
+    public void patchSetMetadataIsParsed() {
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        GerritPatchSet patchset = patchSets.get(0);
+
+        assertThat(patchset.getChangeNumber(), is("2448"));
+        assertThat(patchset.getPatchSetNumber(), is("7"));
+        assertThat(patchset.getRevision(), is("15b1316507acd69bc7398643ddfad68efd6ded67"));
+        assertThat(patchset.getOwner(), is("don"));
+        assertThat(patchset.getTopic(), is(nullValue()));
+        assertThat(patchset.getParents(), is(Arrays.asList("5733fbda77f1dfdfdde57e596a79260d1e9eb549")));
+    }
+
     @Test
     public void patchSetsWithCurrentTimestampAreNotFetched() {
         setTimeStamp("1390482249000");
@@ -197,4 +235,439 @@ public class GerritClientTests {
         verify(context).updateTimestampIfNewer(context.getTimestamp());
     }
 
+    @Test
+    public void patchSetKindIsParsed() throws IOException {
+        setPatchSetKind("REWORK");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.get(0).getKind(), is("REWORK"));
+    }
+
+    @Test
+    public void trivialPatchSetsAreFetchedByDefault() throws IOException {
+        setPatchSetKind("NO_CODE_CHANGE");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+    }
+
+    @Test
+    public void trivialPatchSetsAreSkipped() throws IOException {
+        setSkipTrivialChanges();
+        setPatchSetKind("TRIVIAL_REBASE");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(0));
+        verify(context).updateTimestampIfNewer(new Date(1390482249000L));
+    }
+
+    @Test
+    public void reworkPatchSetsAreNotSkipped() throws IOException {
+        setSkipTrivialChanges();
+        setPatchSetKind("REWORK");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+    }
+
+    private void failSessions(JSchException e) throws JSchException {
+        when(jsch.getSession(anyString(), anyString(), anyInt())).thenThrow(e);
+    }
+
+    @Test
+    public void transientErrorIsRetried() throws JSchException {
+        when(jsch.getSession(anyString(), anyString(), anyInt()))
+                .thenThrow(new JSchException("timeout: socket is not established"))
+                .thenReturn(session);
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+    }
+
+    @Test
+    public void transientErrorIsRetriedOnlyTwice() throws JSchException {
+        failSessions(new JSchException("java.net.ConnectException: Connection refused"));
+
+        getNewPatchSets();
+
+        verify(jsch, times(3)).getSession(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void authErrorIsNotRetried() throws JSchException {
+        failSessions(new JSchException("Auth fail"));
+
+        getNewPatchSets();
+
+        verify(jsch, times(1)).getSession(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void failingHostIsNotPolledUntilItRecovers() throws JSchException {
+        failSessions(new JSchException("java.net.ConnectException: Connection refused"));
+
+        getNewPatchSets();
+        getNewPatchSets();
+
+        verify(jsch, times(3)).getSession(anyString(), anyString(), anyInt());
+    }
+
+    private void setSkipVerified() {
+        when(context.isSkipVerified()).thenReturn(true);
+        when(context.getUsername()).thenReturn("ci");
+    }
+
+    private void setVerifiedBy(String username, String value) throws IOException {
+        setQueryOutput(SAMPLE_OUTPUT.replace("\"approvals\":[", "\"approvals\":[{\"type\":\"Verified\",\"value\":\"" + value
+                + "\",\"by\":{\"name\":\"CI\",\"username\":\"" + username + "\"}},"));
+    }
+
+    @Test
+    public void commandHasMergeableCondition() {
+        when(context.isSkipUnmergeable()).thenReturn(true);
+
+        getNewPatchSets();
+
+        assertThatCommandContains("is:mergeable");
+    }
+
+    @Test
+    public void commandHasVerifiedCondition() {
+        setSkipVerified();
+
+        getNewPatchSets();
+
+        assertThatCommandContains("-label:Verified=+1,ci -label:Verified=-1,ci");
+    }
+
+    @Test
+    public void patchSetVerifiedByUserIsSkipped() throws IOException {
+        setSkipVerified();
+        setVerifiedBy("ci", "-1");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(0));
+    }
+
+    @Test
+    public void patchSetVerifiedByOtherUserIsNotSkipped() throws IOException {
+        setSkipVerified();
+        setVerifiedBy("someone", "1");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+    }
+
+    @Test
+    public void verifiedPatchSetIsNotSkippedByDefault() throws IOException {
+        setVerifiedBy("ci", "1");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+    }
+
+    @Test
+    public void pollIsRecordedWhenEnabled() throws IOException {
+        File traces = new File(folder.getRoot(), "traces");
+        client = new GerritClient(new GerritSessionPool(jsch), new GerritHostHealth(), new GerritHostSelector(), null, null,
+                new GerritPollRecorder(traces), 2, 0L);
+        when(context.isRecordPolls()).thenReturn(true);
+        when(context.getTriggerKey()).thenReturn("bt1/TRIGGER_1");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        File[] recorded = GerritPollRecorder.getTraces(traces);
+        assertThat(patchSets.size(), is(1));
+        assertThat(recorded.length, is(1));
+
+        GerritPollTrace trace = GerritPollTrace.read(new FileInputStream(recorded[0]));
+        assertThat(new String(trace.getPages().get(0)), is(SAMPLE_OUTPUT));
+        assertTrue(trace.getSpans().containsKey("parse"));
+    }
+
+    @Test
+    public void failedPollIsRecordedWithError() throws IOException {
+        File traces = new File(folder.getRoot(), "traces");
+        client = new GerritClient(new GerritSessionPool(jsch), new GerritHostHealth(), new GerritHostSelector(), null, null,
+                new GerritPollRecorder(traces), 2, 0L);
+        when(context.isRecordPolls()).thenReturn(true);
+        setQueryOutput("[1]");
+
+        getNewPatchSets();
+
+        File[] recorded = GerritPollRecorder.getTraces(traces);
+        assertThat(recorded.length, is(1));
+        assertThat(GerritPollTrace.read(new FileInputStream(recorded[0])).getError(), StringContains.containsString("PARSE"));
+    }
+
+    @Test
+    public void pollIsNotRecordedByDefault() {
+        File traces = new File(folder.getRoot(), "traces");
+        client = new GerritClient(new GerritSessionPool(jsch), new GerritHostHealth(), new GerritHostSelector(), null, null,
+                new GerritPollRecorder(traces), 2, 0L);
+
+        getNewPatchSets();
+
+        assertThat(GerritPollRecorder.getTraces(traces).length, is(0));
+    }
+
+    @Test
+    public void shutdownStopsPolling() throws JSchException {
+        assertTrue(client.shutdown(1000L));
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(0));
+        verify(jsch, never()).getSession(anyString(), anyString(), anyInt());
+    }
+
+    private void setReplicaHosts() {
+        when(context.getHost()).thenReturn("primary.com");
+        when(context.getReplicaHosts()).thenReturn(Arrays.asList("replica.com"));
+    }
+
+    @Test
+    public void queryIsRoutedToReplica() throws JSchException {
+        setReplicaHosts();
+
+        getNewPatchSets();
+
+        verify(jsch).getSession(anyString(), eq("replica.com"), anyInt());
+        verify(jsch, never()).getSession(anyString(), eq("primary.com"), anyInt());
+    }
+
+    @Test
+    public void failingReplicaFailsOverToPrimary() throws JSchException {
+        setReplicaHosts();
+        when(jsch.getSession(anyString(), eq("replica.com"), anyInt()))
+                .thenThrow(new JSchException("java.net.ConnectException: Connection refused"));
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+        verify(jsch).getSession(anyString(), eq("primary.com"), anyInt());
+    }
+
+    @Test
+    public void replicaFailingWithAuthErrorFailsOverToPrimary() throws JSchException {
+        setReplicaHosts();
+        when(jsch.getSession(anyString(), eq("replica.com"), anyInt())).thenThrow(new JSchException("Auth fail"));
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+        verify(jsch).getSession(anyString(), eq("primary.com"), anyInt());
+    }
+
+    @Test
+    public void failedReplicaIsNotQueriedAgain() throws JSchException, IOException {
+        setReplicaHosts();
+        when(jsch.getSession(anyString(), eq("replica.com"), anyInt())).thenThrow(new JSchException("Auth fail"));
+        getNewPatchSets();
+        setQueryOutput(SAMPLE_OUTPUT);
+
+        getNewPatchSets();
+
+        verify(jsch, times(1)).getSession(anyString(), eq("replica.com"), anyInt());
+    }
+
+    @Test
+    public void replicaQueryOverlapsPreviousPoll() {
+        setReplicaHosts();
+        setTimeStamp("1390482279000");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+    }
+
+    @Test
+    public void patchSetInReplicaOverlapIsReportedOnce() throws IOException {
+        setReplicaHosts();
+        setTimeStamp("1390482279000");
+        getNewPatchSets();
+        setQueryOutput(SAMPLE_OUTPUT);
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(0));
+    }
+
+    private void setPatchSetFiles(String... files) throws IOException {
+        StringBuilder json = new StringBuilder("\"files\":[");
+
+        for(int i = 0; i < files.length; i++) {
+            json.append(i > 0 ? "," : "").append("{\"file\":\"").append(files[i]).append("\",\"type\":\"MODIFIED\"}");
+        }
+
+        json.append("],\"isDraft\"");
+        setQueryOutput(SAMPLE_OUTPUT.replace("\"isDraft\"", json.toString()));
+    }
+
+    private void setIncludePaths(String... paths) {
+        when(context.hasPathFilter()).thenReturn(true);
+        when(context.getIncludePaths()).thenReturn(Arrays.asList(paths));
+    }
+
+    @Test
+    public void filesAreNotQueriedWithoutPathFilter() {
+        getNewPatchSets();
+
+        assertThatCommandDoesNotContain("--files");
+    }
+
+    @Test
+    public void filesAreQueriedWithPathFilter() {
+        setIncludePaths("src");
+
+        getNewPatchSets();
+
+        assertThatCommandContains("--current-patch-set --files");
+        assertThatCommandDoesNotContain("  ");
+    }
+
+    @Test
+    public void patchSetWithRelevantFilesIsFetched() throws IOException {
+        setIncludePaths("src");
+        setPatchSetFiles("/COMMIT_MSG", "src/Foo.java");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+    }
+
+    @Test
+    public void patchSetWithoutRelevantFilesIsSkipped() throws IOException {
+        setIncludePaths("src");
+        setPatchSetFiles("/COMMIT_MSG", "docs/index.html");
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(0));
+    }
+
+    private void setFullPage() throws IOException {
+        StringBuilder output = new StringBuilder();
+
+        for(int i = 0; i < 10; i++) {
+            output.append(SAMPLE_OUTPUT.substring(0, SAMPLE_OUTPUT.indexOf("\n") + 1));
+        }
+
+        setQueryOutput(output.toString());
+    }
+
+    @Test
+    public void nextPageIsFetchedWhenWholePageIsNew() throws IOException {
+        setFullPage();
+
+        getNewPatchSets();
+
+        assertThatCommandContains("resume_sortkey:002b3a9800000990");
+    }
+
+    @Test
+    public void nextPageIsNotFetchedWhenTimestampIsReached() throws IOException {
+        setFullPage();
+        setTimeStamp("1392802081000");
+
+        getNewPatchSets();
+
+        assertThatCommandDoesNotContain("resume_sortkey:");
+    }
+
+    @Test
+    public void firstPollOnlySetsTimestamp() throws JSchException {
+        when(context.hasTimestamp()).thenReturn(false);
+
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(0));
+        verify(jsch, never()).getSession(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void recentlyJournaledPatchSetsAreReplayedWithoutQuery() throws IOException, JSchException {
+        client = new GerritClient(new GerritSessionPool(jsch), new GerritHostHealth(), new GerritHostSelector(), new GerritEventJournal(folder.getRoot()), null, 2, 0L);
+        when(context.getHost()).thenReturn("host.com");
+        when(context.getProjectParameter()).thenReturn("");
+        when(context.getBranchParameter()).thenReturn("");
+
+        getNewPatchSets();
+        List<GerritPatchSet> patchSets = getNewPatchSets();
+
+        assertThat(patchSets.size(), is(1));
+        assertThat(patchSets.get(0).getRef(), is("refs/changes/48/2448/7"));
+        verify(jsch, times(1)).getSession(anyString(), anyString(), anyInt());
+    }
+
+    private GerritClient createNodeClient(String nodeId) {
+        GerritPollerLease lease = new GerritPollerLease(new File(folder.getRoot(), "leases"), nodeId);
+
+        return new GerritClient(new GerritSessionPool(jsch), new GerritHostHealth(), new GerritHostSelector(),
+                new GerritEventJournal(new File(folder.getRoot(), "journal"), lease), lease, 2, 0L);
+    }
+
+    private GerritEventJournal.Replay replayJournal() {
+        return new GerritEventJournal(new File(folder.getRoot(), "journal"))
+                .replay("host.com", "status:open", context.getTimestamp());
+    }
+
+    @Test
+    public void pollingNodePublishesToJournal() {
+        when(context.getHost()).thenReturn("host.com");
+
+        createNodeClient("node1").getNewPatchSets(context);
+
+        assertThat(replayJournal().getPatchSets().size(), is(1));
+    }
+
+    @Test
+    public void patchSetVerifiedByUserIsNotPublishedToJournal() throws IOException {
+        when(context.getHost()).thenReturn("host.com");
+        setSkipVerified();
+        setVerifiedBy("ci", "-1");
+
+        createNodeClient("node1").getNewPatchSets(context);
+
+        GerritEventJournal.Replay replay = new GerritEventJournal(new File(folder.getRoot(), "journal"))
+                .replay("host.com", "status:open -label:Verified=+1,ci -label:Verified=-1,ci", context.getTimestamp());
+        assertThat(replay.getPatchSets().size(), is(0));
+    }
+
+    @Test
+    public void patchSetJournaledByBroaderScopeIsNotReplayed() throws JSchException {
+        when(context.getHost()).thenReturn("host.com");
+        setSkipVerified();
+        GerritEventJournal journal = new GerritEventJournal(new File(folder.getRoot(), "journal"));
+        GerritPatchSet verified = new GerritPatchSet("abraham", "bush", "refs/changes/48/2448/7", 1390482249000L);
+
+        // Another trigger on the same project, which doesn't skip verified changes.
+        journal.record("host.com", "status:open", context.getTimestamp(), Arrays.asList(verified), true);
+        journal.record("host.com", "status:open -label:Verified=+1,ci -label:Verified=-1,ci", context.getTimestamp(),
+                new ArrayList<GerritPatchSet>(), true);
+
+        List<GerritPatchSet> patchSets = createNodeClient("node1").getNewPatchSets(context);
+
+        assertThat(patchSets.size(), is(0));
+        verify(jsch, never()).getSession(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void otherNodeDoesNotPublishToJournal() {
+        when(context.getHost()).thenReturn("host.com");
+        new GerritPollerLease(new File(folder.getRoot(), "leases"), "node1").tryAcquire("host.com");
+
+        List<GerritPatchSet> patchSets = createNodeClient("node2").getNewPatchSets(context);
+
+        assertThat(patchSets.size(), is(1));
+        assertThat(replayJournal(), is(nullValue()));
+    }
 }
@@ -0,0 +1,92 @@
+package org.saulis;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonStreamParser;
+import com.jcraft.jsch.JSchException;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.NoSuchElementException;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class GerritErrorTypeTests {
+
+    @Test
+    public void authFailureIsClassified() {
+        assertThat(GerritErrorType.classify(new JSchException("Auth fail")), is(GerritErrorType.AUTH));
+    }
+
+    @Test
+    public void invalidPrivateKeyIsClassifiedAsAuth() {
+        assertThat(GerritErrorType.classify(new JSchException("invalid privatekey: foo")), is(GerritErrorType.AUTH));
+    }
+
+    @Test
+    public void timeoutIsClassified() {
+        assertThat(GerritErrorType.classify(new JSchException("timeout: socket is not established")), is(GerritErrorType.TIMEOUT));
+        assertThat(GerritErrorType.classify(new SocketTimeoutException()), is(GerritErrorType.TIMEOUT));
+    }
+
+    @Test
+    public void truncatedOutputIsClassifiedAsNetwork() {
+        JsonStreamParser parser = new JsonStreamParser(new StringReader("{\"project\":\"project\"}\n{\"project\":\"project\",\"branch\":"));
+
+        RuntimeException error = null;
+
+        try {
+            while(parser.hasNext()) {
+                parser.next();
+            }
+        } catch (RuntimeException e) {
+            error = e;
+        }
+
+        assertThat(GerritErrorType.classify(error), is(GerritErrorType.NETWORK));
+    }
+
+    @Test
+    public void endOfRowsIsClassifiedAsNetwork() {
+        assertThat(GerritErrorType.classify(new NoSuchElementException()), is(GerritErrorType.NETWORK));
+        assertThat(GerritErrorType.classify(new JsonIOException(new EOFException())), is(GerritErrorType.NETWORK));
+    }
+
+    @Test
+    public void causeIsUsedForClassification() {
+        JSchException e = new JSchException("session is down", new UnknownHostException("gerrit"));
+
+        assertThat(GerritErrorType.classify(e), is(GerritErrorType.NETWORK));
+    }
+
+    @Test
+    public void ioErrorIsClassifiedAsNetwork() {
+        assertThat(GerritErrorType.classify(new IOException("Pipe closed")), is(GerritErrorType.NETWORK));
+    }
+
+    @Test
+    public void parseErrorIsClassified() {
+        assertThat(GerritErrorType.classify(new JsonParseException("foo")), is(GerritErrorType.PARSE));
+    }
+
+    @Test
+    public void streamErrorWrappedByParserIsClassifiedAsNetwork() {
+        assertThat(GerritErrorType.classify(new JsonIOException(new IOException("Pipe closed"))), is(GerritErrorType.NETWORK));
+        assertThat(GerritErrorType.classify(new JsonIOException(new SocketTimeoutException())), is(GerritErrorType.TIMEOUT));
+    }
+
+    @Test
+    public void onlyNetworkErrorsAreTransient() {
+        assertTrue(GerritErrorType.NETWORK.isTransient());
+        assertTrue(GerritErrorType.TIMEOUT.isTransient());
+        assertFalse(GerritErrorType.AUTH.isTransient());
+        assertFalse(GerritErrorType.PARSE.isTransient());
+    }
+}
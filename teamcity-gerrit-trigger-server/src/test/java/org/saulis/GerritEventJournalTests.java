@@ -0,0 +1,240 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class GerritEventJournalTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GerritEventJournal sut;
+    private long now;
+
+    @Before
+    public void setup() {
+        sut = new GerritEventJournal(folder.getRoot());
+        now = System.currentTimeMillis();
+    }
+
+    private GerritPatchSet createPatchSet(String project, String changeNumber, long createdOn) {
+        return new GerritPatchSet.Builder(project, "master", "refs/changes/" + changeNumber + "/1", createdOn)
+                .changeNumber(changeNumber)
+                .patchSetNumber("1")
+                .revision("rev" + changeNumber)
+                .owner("owner")
+                .kind("REWORK")
+                .parents(Arrays.asList("parent"))
+                .build();
+    }
+
+    private List<GerritPatchSet> list(GerritPatchSet... patchSets) {
+        return new ArrayList<GerritPatchSet>(Arrays.asList(patchSets));
+    }
+
+    private List<GerritPatchSet> replay(GerritEventJournal journal, long since) {
+        return replay(journal, "status:open", since);
+    }
+
+    private List<GerritPatchSet> replay(GerritEventJournal journal, String scope, long since) {
+        GerritEventJournal.Replay replay = journal.replay("host", scope, new Date(since));
+
+        return replay == null ? null : replay.getPatchSets();
+    }
+
+    @Test
+    public void uncoveredScopeIsNotReplayed() {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), false);
+
+        assertThat(replay(sut, now - 1000), is(nullValue()));
+    }
+
+    @Test
+    public void coveredPatchSetsAreReplayed() {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now - 500), createPatchSet("foo", "2", now)), true);
+
+        List<GerritPatchSet> patchSets = replay(sut, now - 600);
+
+        assertThat(patchSets.size(), is(2));
+        assertThat(patchSets.get(0).getRef(), is("refs/changes/1/1"));
+        assertThat(patchSets.get(1).getRevision(), is("rev2"));
+        assertThat(patchSets.get(1).getParents(), is(Arrays.asList("parent")));
+        assertThat(patchSets.get(1).getTopic(), is(nullValue()));
+    }
+
+    @Test
+    public void patchSetsOlderThanTimestampAreNotReplayed() {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now - 500), createPatchSet("foo", "2", now)), true);
+
+        assertThat(replay(sut, now - 500).size(), is(1));
+    }
+
+    @Test
+    public void timestampBeforeCoverageIsNotReplayed() {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+
+        assertThat(replay(sut, now - 2000), is(nullValue()));
+    }
+
+    @Test
+    public void otherScopesAreNotReplayed() {
+        sut.record("host", "status:open project:foo", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+
+        assertThat(replay(sut, now - 1000), is(nullValue()));
+    }
+
+    @Test
+    public void recordsOfOtherScopesAreNotReplayed() {
+        sut.record("host", "status:open project:foo", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+        sut.record("host", "status:open project:bar", new Date(now - 1000), list(createPatchSet("bar", "2", now)), true);
+
+        List<GerritPatchSet> patchSets = replay(sut, "status:open project:bar", now - 1000);
+        assertThat(patchSets.size(), is(1));
+        assertThat(patchSets.get(0).getProject(), is("bar"));
+    }
+
+    @Test
+    public void patchSetSeenByNarrowerScopeIsReplayedForIt() {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+        sut.record("host", "status:open project:foo", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+
+        assertThat(replay(sut, "status:open project:foo", now - 1000).size(), is(1));
+        assertThat(replay(sut, now - 1000).size(), is(1));
+    }
+
+    @Test
+    public void overlappingCoveragesAreMerged() {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now - 500)), true);
+        sut.record("host", "status:open", new Date(now - 500), list(createPatchSet("foo", "2", now)), true);
+
+        assertThat(replay(sut, now - 1000).size(), is(2));
+    }
+
+    @Test
+    public void samePatchSetIsJournaledOnce() {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+
+        assertThat(replay(sut, now - 1000).size(), is(1));
+    }
+
+    @Test
+    public void journalIsReadFromDisk() {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+
+        GerritEventJournal reopened = new GerritEventJournal(folder.getRoot());
+
+        assertThat(replay(reopened, now - 1000).size(), is(1));
+    }
+
+    @Test
+    public void appendsFromOtherInstancesAreSeen() {
+        GerritEventJournal other = new GerritEventJournal(folder.getRoot());
+        replay(other, now - 1000);
+
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+
+        assertThat(replay(other, now - 1000).size(), is(1));
+    }
+
+    @Test
+    public void oldRecordsAreCompactedAway() {
+        sut = new GerritEventJournal(folder.getRoot(), 200, 60 * 1000L);
+        long old = now - 2 * 60 * 1000L;
+
+        sut.record("host", "status:open", new Date(old - 1000), list(createPatchSet("foo", "1", old - 2), createPatchSet("foo", "2", old - 1),
+                createPatchSet("foo", "3", old)), true);
+        sut.record("host", "status:open", new Date(old), list(createPatchSet("foo", "4", now)), true);
+
+        assertThat(replay(sut, old - 1000), is(nullValue()));
+        assertThat(replay(new GerritEventJournal(folder.getRoot()), now - 1000).size(), is(1));
+    }
+
+    @Test
+    public void compactionDropsOldestRecordsWithinRetention() {
+        sut = new GerritEventJournal(folder.getRoot(), 1000, 24 * 60 * 60 * 1000L);
+
+        for(int i = 1; i <= 20; i++) {
+            sut.record("host", "status:open", new Date(now - 1000 + (i - 1) * 10), list(createPatchSet("foo", String.valueOf(i), now - 1000 + i * 10)), true);
+        }
+
+        assertThat(new File(folder.getRoot(), "host.journal").length() <= 1000, is(true));
+        assertThat(replay(sut, now - 1000), is(nullValue()));
+
+        List<GerritPatchSet> patchSets = replay(sut, now - 1000 + 19 * 10);
+        assertThat(patchSets.size(), is(1));
+        assertThat(patchSets.get(0).getChangeNumber(), is("20"));
+    }
+
+    @Test
+    public void corruptedRecordIsNotReplayed() throws IOException {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true);
+        replay(sut, now - 1000);
+
+        // Overwritten in place, so that the indexed offsets stay the same.
+        RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), "host.journal"), "rw");
+        try {
+            file.seek(file.length() - 5);
+            file.write("x\tx\n".getBytes("UTF-8"));
+        } finally {
+            file.close();
+        }
+
+        assertThat(replay(sut, now - 1000), is(nullValue()));
+    }
+
+    @Test
+    public void journalRewrittenByOtherInstanceIsReindexed() {
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now - 900), createPatchSet("foo", "2", now - 800)), true);
+        replay(sut, now - 1000);
+
+        // Replaced by another instance, e.g. when compacting, and appended to past the previous length.
+        assertThat(new File(folder.getRoot(), "host.journal").delete(), is(true));
+        GerritEventJournal other = new GerritEventJournal(folder.getRoot());
+        for(int i = 3; i <= 6; i++) {
+            other.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", String.valueOf(i), now - 1000 + i * 10)), true);
+        }
+
+        List<String> refs = new ArrayList<String>();
+        for(GerritPatchSet p : replay(sut, now - 1000)) {
+            refs.add(p.getRef());
+        }
+
+        assertThat(refs, is(Arrays.asList("refs/changes/3/1", "refs/changes/4/1", "refs/changes/5/1", "refs/changes/6/1")));
+    }
+
+    @Test
+    public void resultsAreNotRecordedWithoutLease() {
+        GerritPollerLease lease = new GerritPollerLease(new File(folder.getRoot(), "leases"), "node1");
+        new GerritPollerLease(new File(folder.getRoot(), "leases"), "node2").tryAcquire("host");
+        sut = new GerritEventJournal(folder.getRoot(), lease);
+
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true, 0, lease.tryAcquire("host"));
+
+        assertThat(replay(sut, now - 1000), is(nullValue()));
+    }
+
+    @Test
+    public void resultsAreRecordedWithLease() {
+        GerritPollerLease lease = new GerritPollerLease(new File(folder.getRoot(), "leases"), "node1");
+        sut = new GerritEventJournal(folder.getRoot(), lease);
+
+        sut.record("host", "status:open", new Date(now - 1000), list(createPatchSet("foo", "1", now)), true, 0, lease.tryAcquire("host"));
+
+        assertThat(replay(sut, now - 1000).size(), is(1));
+    }
+}
@@ -0,0 +1,72 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GerritHostSelectorTests {
+
+    private GerritHostSelector sut;
+    private GerritHostHealth hostHealth;
+
+    @Before
+    public void setup() {
+        sut = new GerritHostSelector(new Random(0));
+        hostHealth = new GerritHostHealth();
+    }
+
+    @Test
+    public void primaryIsSelectedWithoutReplicas() {
+        assertThat(sut.select("primary", Collections.<String>emptyList(), hostHealth), is("primary"));
+    }
+
+    @Test
+    public void unmeasuredReplicaIsSelectedFirst() {
+        sut.recordLatency("replica1", 100);
+
+        assertThat(sut.select("primary", Arrays.asList("replica1", "replica2"), hostHealth), is("replica2"));
+    }
+
+    @Test
+    public void failingReplicaIsNotSelected() {
+        hostHealth.reportFailure("replica1");
+
+        assertThat(sut.select("primary", Arrays.asList("replica1", "replica2"), hostHealth), is("replica2"));
+    }
+
+    @Test
+    public void primaryIsSelectedWhenAllReplicasAreFailing() {
+        hostHealth.reportFailure("replica1");
+
+        assertThat(sut.select("primary", Arrays.asList("replica1"), hostHealth), is("primary"));
+    }
+
+    @Test
+    public void fasterReplicaIsSelectedMoreOften() {
+        sut.recordLatency("replica1", 50);
+        sut.recordLatency("replica2", 500);
+
+        int fasterSelected = 0;
+        for(int i = 0; i < 1000; i++) {
+            if(sut.select("primary", Arrays.asList("replica1", "replica2"), hostHealth).equals("replica1")) {
+                fasterSelected++;
+            }
+        }
+
+        assertThat(fasterSelected > 800, is(true));
+    }
+
+    @Test
+    public void latencyIsSmoothed() {
+        sut.recordLatency("replica1", 100);
+        sut.recordLatency("replica1", 200);
+
+        assertThat(sut.getLatency("replica1"), is(130.0));
+    }
+}
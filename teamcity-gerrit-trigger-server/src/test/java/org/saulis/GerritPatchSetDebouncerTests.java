@@ -0,0 +1,163 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GerritPatchSetDebouncerTests {
+
+    private GerritPatchSetDebouncer sut;
+    private GerritPolledTriggerContext context;
+    private List<GerritPatchSet> patchSets;
+
+    @Before
+    public void setup() {
+        sut = new GerritPatchSetDebouncer();
+        context = mock(GerritPolledTriggerContext.class);
+        patchSets = new ArrayList<GerritPatchSet>();
+
+        when(context.getTriggerKey()).thenReturn("bt1/TRIGGER_1");
+        when(context.getDebounceMillis()).thenReturn(60000L);
+        when(context.getDebounceMaxWaitMillis()).thenReturn(300000L);
+        mockPendingPatchSets();
+    }
+
+    private void mockPendingPatchSets() {
+        final List<GerritPatchSetDebouncer.PendingPatchSet> pending = new ArrayList<GerritPatchSetDebouncer.PendingPatchSet>();
+
+        when(context.getPendingPatchSets()).thenAnswer(new Answer<List<GerritPatchSetDebouncer.PendingPatchSet>>() {
+            public List<GerritPatchSetDebouncer.PendingPatchSet> answer(InvocationOnMock invocation) {
+                return new ArrayList<GerritPatchSetDebouncer.PendingPatchSet>(pending);
+            }
+        });
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                pending.clear();
+                pending.addAll((List<GerritPatchSetDebouncer.PendingPatchSet>)invocation.getArguments()[0]);
+
+                return null;
+            }
+        }).when(context).setPendingPatchSets(anyList());
+    }
+
+    private void addPatchSet(String changeNumber, String patchSetNumber, long createdOn) {
+        String ref = "refs/changes/" + changeNumber + "/" + patchSetNumber;
+        patchSets.add(new GerritPatchSet.Builder("project", "master", ref, createdOn)
+                .changeNumber(changeNumber)
+                .patchSetNumber(patchSetNumber)
+                .build());
+    }
+
+    private List<String> debounce(long now) {
+        List<String> refs = new ArrayList<String>();
+
+        for(GerritPatchSet p : sut.debounce(context, patchSets, now)) {
+            refs.add(p.getRef());
+        }
+
+        patchSets.clear();
+
+        return refs;
+    }
+
+    @Test
+    public void patchSetsArePassedThroughWithoutDebounce() {
+        when(context.getDebounceMillis()).thenReturn(0L);
+        addPatchSet("1", "1", 1000L);
+
+        assertThat(debounce(0L).size(), is(1));
+    }
+
+    @Test
+    public void patchSetIsHeldDuringWindow() {
+        addPatchSet("1", "1", 1000L);
+
+        assertThat(debounce(0L).size(), is(0));
+        assertThat(debounce(59999L).size(), is(0));
+    }
+
+    @Test
+    public void patchSetIsReleasedAfterWindow() {
+        addPatchSet("1", "1", 1000L);
+        debounce(0L);
+
+        assertThat(debounce(60000L).get(0), is("refs/changes/1/1"));
+    }
+
+    @Test
+    public void onlyNewestPatchSetOfChangeIsReleased() {
+        addPatchSet("1", "1", 1000L);
+        debounce(0L);
+        addPatchSet("1", "2", 2000L);
+        debounce(30000L);
+
+        List<String> released = debounce(90000L);
+
+        assertThat(released.size(), is(1));
+        assertThat(released.get(0), is("refs/changes/1/2"));
+    }
+
+    @Test
+    public void newPatchSetRestartsWindow() {
+        addPatchSet("1", "1", 1000L);
+        debounce(0L);
+        addPatchSet("1", "2", 2000L);
+        debounce(30000L);
+
+        assertThat(debounce(60000L).size(), is(0));
+    }
+
+    @Test
+    public void patchSetIsReleasedAfterMaxWait() {
+        for(int i = 0; i <= 10; i++) {
+            addPatchSet("1", String.valueOf(i + 1), 1000L * i);
+            List<String> released = debounce(30000L * i);
+
+            if(i == 10) {
+                assertThat(released.get(0), is("refs/changes/1/11"));
+            } else {
+                assertThat(released.size(), is(0));
+            }
+        }
+    }
+
+    @Test
+    public void reportedAgainPatchSetDoesNotRestartWindow() {
+        addPatchSet("1", "1", 1000L);
+        debounce(0L);
+        addPatchSet("1", "1", 1000L);
+        debounce(30000L);
+
+        assertThat(debounce(60000L).size(), is(1));
+    }
+
+    @Test
+    public void differentChangesAreNotCoalesced() {
+        addPatchSet("1", "1", 1000L);
+        addPatchSet("2", "1", 1000L);
+        debounce(0L);
+
+        assertThat(debounce(60000L).size(), is(2));
+    }
+
+    @Test
+    public void pendingPatchSetIsReleasedAfterRestart() {
+        addPatchSet("1", "1", 1000L);
+        debounce(0L);
+
+        sut = new GerritPatchSetDebouncer();
+
+        assertThat(debounce(60000L).size(), is(1));
+    }
+}
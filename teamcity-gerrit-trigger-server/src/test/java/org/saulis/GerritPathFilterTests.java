@@ -0,0 +1,73 @@
+package org.saulis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GerritPathFilterTests {
+
+    private List<String> list(String... values) {
+        return new ArrayList<String>(Arrays.asList(values));
+    }
+
+    private boolean isRelevant(List<String> includes, List<String> excludes, String... files) {
+        return new GerritPathFilter(includes, excludes).isRelevant(list(files));
+    }
+
+    @Test
+    public void everythingIsIncludedByDefault() {
+        assertTrue(isRelevant(list(), list(), "src/Foo.java"));
+    }
+
+    @Test
+    public void directoryIncludesFilesUnderIt() {
+        assertTrue(isRelevant(list("src"), list(), "src/main/Foo.java"));
+        assertTrue(isRelevant(list("src/"), list(), "src/main/Foo.java"));
+        assertFalse(isRelevant(list("src"), list(), "srcs/Foo.java"));
+    }
+
+    @Test
+    public void singleStarDoesNotCrossDirectories() {
+        assertTrue(isRelevant(list("src/*.java"), list(), "src/Foo.java"));
+        assertFalse(isRelevant(list("src/*.java"), list(), "src/main/Foo.java"));
+    }
+
+    @Test
+    public void doubleStarCrossesDirectories() {
+        assertTrue(isRelevant(list("src/**/*.java"), list(), "src/main/Foo.java"));
+        assertTrue(isRelevant(list("src/**/*.java"), list(), "src/Foo.java"));
+        assertTrue(isRelevant(list("**/pom.xml"), list(), "pom.xml"));
+    }
+
+    @Test
+    public void questionMarkMatchesSingleCharacter() {
+        assertTrue(isRelevant(list("v?.txt"), list(), "v1.txt"));
+        assertFalse(isRelevant(list("v?.txt"), list(), "v10.txt"));
+    }
+
+    @Test
+    public void excludedFilesAreNotRelevant() {
+        assertFalse(isRelevant(list(), list("docs", "**/*.md"), "docs/index.html", "README.md"));
+    }
+
+    @Test
+    public void oneRelevantFileIsEnough() {
+        assertTrue(isRelevant(list(), list("docs"), "docs/index.html", "src/Foo.java"));
+    }
+
+    @Test
+    public void commitMessageIsIgnored() {
+        assertFalse(isRelevant(list(), list("docs"), "/COMMIT_MSG", "docs/index.html"));
+    }
+
+    @Test
+    public void specialCharactersAreMatchedLiterally() {
+        assertTrue(isRelevant(list("lib/foo+bar/*.c"), list(), "lib/foo+bar/baz.c"));
+        assertFalse(isRelevant(list("a.c"), list(), "abc"));
+    }
+}
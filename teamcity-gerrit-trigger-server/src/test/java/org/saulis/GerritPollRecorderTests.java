@@ -0,0 +1,72 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.HashMap;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GerritPollRecorderTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GerritPollRecorder sut;
+    private File directory;
+
+    @Before
+    public void setup() {
+        directory = new File(folder.getRoot(), "traces");
+        sut = new GerritPollRecorder(directory, 2);
+    }
+
+    private GerritPollTrace createTrace(String triggerKey) {
+        return new GerritPollTrace(triggerKey, "host.com", new Date(1000L), new HashMap<String, String>());
+    }
+
+    private GerritPollTrace read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return GerritPollTrace.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void traceIsWritten() throws IOException {
+        sut.record(createTrace("bt1/TRIGGER_1"));
+
+        File[] traces = GerritPollRecorder.getTraces(directory);
+
+        assertThat(traces.length, is(1));
+        assertThat(read(traces[0]).getTriggerKey(), is("bt1/TRIGGER_1"));
+    }
+
+    @Test
+    public void oldestTracesAreRemoved() throws IOException {
+        sut.record(createTrace("bt1/TRIGGER_1"));
+        sut.record(createTrace("bt1/TRIGGER_2"));
+        sut.record(createTrace("bt1/TRIGGER_3"));
+
+        File[] traces = GerritPollRecorder.getTraces(directory);
+
+        assertThat(traces.length, is(2));
+        assertThat(read(traces[0]).getTriggerKey(), is("bt1/TRIGGER_2"));
+        assertThat(read(traces[1]).getTriggerKey(), is("bt1/TRIGGER_3"));
+    }
+
+    @Test
+    public void missingDirectoryHasNoTraces() {
+        assertThat(GerritPollRecorder.getTraces(directory).length, is(0));
+    }
+}
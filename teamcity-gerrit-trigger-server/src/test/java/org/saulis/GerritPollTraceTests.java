@@ -0,0 +1,86 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class GerritPollTraceTests {
+
+    private GerritPollTrace trace;
+    private Map<String, String> parameters;
+
+    @Before
+    public void setup() {
+        parameters = new HashMap<String, String>();
+        parameters.put(Parameters.HOST, "host.com");
+        parameters.put(Parameters.INCLUDE_PATHS, "src\ndocs");
+        parameters.put(Parameters.PASSPHRASE, "secret");
+
+        trace = new GerritPollTrace("bt1/TRIGGER_1", "host.com", new Date(1000L), parameters);
+    }
+
+    private GerritPollTrace writeAndRead() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.write(out);
+
+        return GerritPollTrace.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void spansAreAddedUp() {
+        trace.addSpan("query", 10L);
+        trace.addSpan("query", 5L);
+
+        assertThat(trace.getSpans().get("query"), is(15L));
+    }
+
+    @Test
+    public void credentialsAreNotRecorded() {
+        assertFalse(trace.getParameters().containsKey(Parameters.PASSPHRASE));
+    }
+
+    @Test
+    public void traceIsReadBack() throws IOException {
+        trace.addSpan("connect", 3L);
+        trace.addPage("{\"a\":1}\n{\"b\":2}\n".getBytes("UTF-8"));
+        trace.addPage("{\"c\":3}".getBytes("UTF-8"));
+
+        GerritPollTrace read = writeAndRead();
+
+        assertThat(read.getTriggerKey(), is("bt1/TRIGGER_1"));
+        assertThat(read.getHost(), is("host.com"));
+        assertThat(read.getTimestamp(), is(new Date(1000L)));
+        assertThat(read.getRecordedAt(), is(trace.getRecordedAt()));
+        assertThat(read.getSpans().get("connect"), is(3L));
+        assertThat(read.getPages().size(), is(2));
+        assertThat(new String(read.getPages().get(0), "UTF-8"), is("{\"a\":1}\n{\"b\":2}\n"));
+    }
+
+    @Test
+    public void multilineParameterIsReadBack() throws IOException {
+        assertThat(writeAndRead().getParameters().get(Parameters.INCLUDE_PATHS), is("src\ndocs"));
+    }
+
+    @Test
+    public void errorIsReadBack() throws IOException {
+        trace.setError(new IOException("Pipe closed\nby host"));
+
+        assertThat(writeAndRead().getError(), is("NETWORK: java.io.IOException: Pipe closed\nby host"));
+    }
+
+    @Test
+    public void successfulPollHasNoError() throws IOException {
+        assertThat(writeAndRead().getError(), is(nullValue()));
+    }
+}
@@ -1,17 +1,28 @@
 package org.saulis;
 
+import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.buildTriggers.PolledTriggerContext;
 import jetbrains.buildServer.serverSide.BuildCustomizer;
 import jetbrains.buildServer.serverSide.BuildCustomizerFactory;
 import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.CustomDataStorage;
 import jetbrains.buildServer.serverSide.SBuildType;
 import jetbrains.buildServer.users.SUser;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 
 public class GerritPolledBuildTriggerTests {
@@ -23,13 +34,17 @@ public class GerritPolledBuildTriggerTests {
     private ArrayList<GerritPatchSet> patchSets;
     private BuildPromotion buildPromotion;
     private BuildCustomizer buildCustomizer;
+    private GerritVerifiedPatchSets verifiedPatchSets;
+    private HashMap<String, String> parameters = new HashMap<String, String>();
 
     @Before
     public void setup() {
         client = mock(GerritClient.class);
         buildCustomerFactory = mock(BuildCustomizerFactory.class);
 
-        sut = new GerritPolledBuildTrigger(client, buildCustomerFactory);
+        verifiedPatchSets = mock(GerritVerifiedPatchSets.class);
+
+        sut = new GerritPolledBuildTrigger(client, buildCustomerFactory, verifiedPatchSets);
 
         context = mock(PolledTriggerContext.class);
         patchSets = new ArrayList<GerritPatchSet>();
@@ -40,6 +55,54 @@ public class GerritPolledBuildTriggerTests {
 
         buildPromotion = mock(BuildPromotion.class);
         when(buildCustomizer.createPromotion()).thenReturn(buildPromotion);
+
+        mockCustomDataStorage();
+        mockTriggerDescriptor();
+    }
+
+    private void mockTriggerDescriptor() {
+        SBuildType buildType = mock(SBuildType.class);
+        when(buildType.getBuildTypeId()).thenReturn("bt1");
+        when(context.getBuildType()).thenReturn(buildType);
+
+        BuildTriggerDescriptor triggerDescriptor = mock(BuildTriggerDescriptor.class);
+        when(triggerDescriptor.getId()).thenReturn("TRIGGER_1");
+        when(triggerDescriptor.getParameters()).thenReturn(parameters);
+        when(context.getTriggerDescriptor()).thenReturn(triggerDescriptor);
+    }
+
+    private void mockCustomDataStorage() {
+        final HashMap<String, String> storedValues = new HashMap<String, String>();
+        CustomDataStorage customDataStorage = mock(CustomDataStorage.class);
+
+        when(context.getCustomDataStorage()).thenReturn(customDataStorage);
+        when(customDataStorage.getValues()).thenReturn(storedValues);
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Object[] arguments = invocation.getArguments();
+                storedValues.put((String)arguments[0], (String)arguments[1]);
+
+                return null;
+            }
+        }).when(customDataStorage).putValue(anyString(), anyString());
+    }
+
+    private GerritPatchSet createChainPatchSet(String changeNumber, String patchSetNumber, String revision, String parent) {
+        return new GerritPatchSet.Builder("project", "branch", "refs/changes/" + changeNumber + "/" + patchSetNumber, new Date().getTime())
+                .changeNumber(changeNumber)
+                .patchSetNumber(patchSetNumber)
+                .revision(revision)
+                .parents(Arrays.asList(parent))
+                .build();
+    }
+
+    private GerritPatchSet createPatchSet(String ref, String revision) {
+        return new GerritPatchSet.Builder("project", "branch", ref, new Date().getTime())
+                .changeNumber("1")
+                .patchSetNumber("1")
+                .revision(revision)
+                .owner("owner")
+                .build();
     }
 
     private void triggerBuild() {
@@ -73,6 +136,195 @@ public class GerritPolledBuildTriggerTests {
         verify(buildPromotion).addToQueue("Gerrit");
     }
 
+    @Test
+    public void patchSetMetadataIsSetAsBuildParameters() {
+        patchSets.add(new GerritPatchSet.Builder("project", "branch", "refs/changes/1", new Date().getTime())
+                .changeNumber("2448")
+                .patchSetNumber("7")
+                .revision("15b1316507acd69bc7398643ddfad68efd6ded67")
+                .owner("don")
+                .build());
 
-}
+        triggerBuild();
+
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put(BuildParameters.PROJECT, "project");
+        expected.put(BuildParameters.CHANGE_NUMBER, "2448");
+        expected.put(BuildParameters.PATCHSET_NUMBER, "7");
+        expected.put(BuildParameters.REVISION, "15b1316507acd69bc7398643ddfad68efd6ded67");
+        expected.put(BuildParameters.OWNER, "don");
+        expected.put(BuildParameters.TRIGGER_ID, "TRIGGER_1");
+        verify(buildCustomizer).setParameters(expected);
+    }
+
+    @Test
+    public void sameRevisionIsQueuedOnlyOnce() {
+        patchSets.add(createPatchSet("refs/changes/1", "abc"));
+        patchSets.add(createPatchSet("refs/changes/2", "abc"));
 
+        triggerBuild();
+
+        verify(buildPromotion, times(1)).addToQueue("Gerrit");
+    }
+
+    @Test
+    public void alreadyQueuedRevisionIsNotQueuedOnNextPoll() {
+        patchSets.add(createPatchSet("refs/changes/1", "abc"));
+        triggerBuild();
+
+        triggerBuild();
+
+        verify(buildPromotion, times(1)).addToQueue("Gerrit");
+    }
+
+    @Test
+    public void revisionIsNotMarkedQueuedWhenQueueingFails() {
+        patchSets.add(createPatchSet("refs/changes/1", "abc"));
+        when(buildPromotion.addToQueue("Gerrit")).thenThrow(new RuntimeException("Queue is not available")).thenReturn(null);
+
+        triggerBuild();
+        triggerBuild();
+
+        verify(buildPromotion, times(2)).addToQueue("Gerrit");
+    }
+
+    @Test
+    public void differentRevisionsAreQueued() {
+        patchSets.add(createPatchSet("refs/changes/1", "abc"));
+        patchSets.add(createPatchSet("refs/changes/2", "def"));
+
+        triggerBuild();
+
+        verify(buildPromotion, times(2)).addToQueue("Gerrit");
+    }
+
+    @Test
+    public void buildsOverTheLimitAreDeferredToNextPoll() {
+        parameters.put(Parameters.MAX_BUILDS_PER_POLL, "1");
+        patchSets.add(createPatchSet("refs/changes/1", "abc"));
+        patchSets.add(createPatchSet("refs/changes/2", "def"));
+
+        triggerBuild();
+        verify(buildPromotion, times(1)).addToQueue("Gerrit");
+
+        patchSets.clear();
+        triggerBuild();
+        verify(buildPromotion, times(2)).addToQueue("Gerrit");
+    }
+
+    @Test
+    public void alreadyQueuedRevisionDoesNotCountAgainstTheLimit() {
+        parameters.put(Parameters.MAX_BUILDS_PER_POLL, "1");
+        patchSets.add(createPatchSet("refs/changes/1", "abc"));
+        triggerBuild();
+
+        patchSets.clear();
+        patchSets.add(createPatchSet("refs/changes/2", "abc"));
+        patchSets.add(createPatchSet("refs/changes/3", "def"));
+        triggerBuild();
+
+        verify(buildPromotion, times(2)).addToQueue("Gerrit");
+    }
+
+    @Test
+    public void onlyTipOfRelationChainIsQueued() {
+        parameters.put(Parameters.BUILD_CHAIN_TIPS_ONLY, "true");
+        patchSets.add(new GerritPatchSet.Builder("project", "branch", "refs/changes/1", new Date().getTime())
+                .changeNumber("1")
+                .patchSetNumber("1")
+                .revision("abc")
+                .owner("owner")
+                .parents(Arrays.asList("master"))
+                .build());
+        patchSets.add(new GerritPatchSet.Builder("project", "branch", "refs/changes/2", new Date().getTime())
+                .changeNumber("2")
+                .patchSetNumber("1")
+                .revision("def")
+                .owner("owner")
+                .parents(Arrays.asList("abc"))
+                .build());
+
+        triggerBuild();
+
+        verify(buildPromotion, times(1)).addToQueue("Gerrit");
+        verify(buildCustomizer).setDesiredBranchName("changes/2");
+        ArgumentCaptor<Map> buildParameters = ArgumentCaptor.forClass(Map.class);
+        verify(buildCustomizer).setParameters(buildParameters.capture());
+        assertThat((String)buildParameters.getValue().get(BuildParameters.CHAIN_CHANGES), is("1"));
+        assertThat((String)buildParameters.getValue().get(BuildParameters.CHAIN_PATCHSETS), is("1,1"));
+    }
+
+    @Test
+    public void chainAncestorsAreKeptWhenTipIsReplacedByNewerPatchSet() {
+        parameters.put(Parameters.BUILD_CHAIN_TIPS_ONLY, "true");
+        parameters.put(Parameters.DEBOUNCE, "60");
+        patchSets.add(createChainPatchSet("1", "1", "abc", "master"));
+        patchSets.add(createChainPatchSet("2", "1", "def", "abc"));
+
+        triggerBuild();
+        verify(buildPromotion, never()).addToQueue("Gerrit");
+
+        // Only the tip gets a new patch set, the debounce window is zero so it's released right away.
+        patchSets.clear();
+        patchSets.add(createChainPatchSet("2", "2", "ghi", "abc"));
+        parameters.put(Parameters.DEBOUNCE, "0");
+        parameters.put(Parameters.DEBOUNCE_MAX_WAIT, "0");
+        triggerBuild();
+
+        verify(buildCustomizer).setDesiredBranchName("changes/2/2");
+        ArgumentCaptor<Map> buildParameters = ArgumentCaptor.forClass(Map.class);
+        verify(buildCustomizer).setParameters(buildParameters.capture());
+        assertThat((String)buildParameters.getValue().get(BuildParameters.CHAIN_CHANGES), is("1"));
+    }
+
+    @Test
+    public void chainAncestorsAreBuiltWhenTipIsNotBuilt() {
+        parameters.put(Parameters.BUILD_CHAIN_TIPS_ONLY, "true");
+        parameters.put(Parameters.REUSE_VERIFIED_RESULTS, "true");
+        patchSets.add(createChainPatchSet("1", "1", "abc", "master"));
+        GerritPatchSet tip = createChainPatchSet("2", "1", "def", "abc");
+        patchSets.add(tip);
+        when(verifiedPatchSets.isVerified("bt1", tip)).thenReturn(true);
+
+        triggerBuild();
+
+        verify(buildPromotion, times(1)).addToQueue("Gerrit");
+        verify(buildCustomizer).setDesiredBranchName("changes/1/1");
+    }
+
+    @Test
+    public void chainAncestorsCoveredByTipAreNotBuiltWhenReportedAgain() {
+        parameters.put(Parameters.BUILD_CHAIN_TIPS_ONLY, "true");
+        patchSets.add(createChainPatchSet("1", "1", "abc", "master"));
+        patchSets.add(createChainPatchSet("2", "1", "def", "abc"));
+
+        triggerBuild();
+        triggerBuild();
+
+        verify(buildPromotion, times(1)).addToQueue("Gerrit");
+    }
+
+    @Test
+    public void verifiedPatchSetIsNotQueuedWhenReusingResults() {
+        parameters.put(Parameters.REUSE_VERIFIED_RESULTS, "true");
+        GerritPatchSet patchSet = createPatchSet("refs/changes/1", "abc");
+        patchSets.add(patchSet);
+        when(verifiedPatchSets.isVerified("bt1", patchSet)).thenReturn(true);
+
+        triggerBuild();
+
+        verify(buildPromotion, never()).addToQueue("Gerrit");
+        verify(verifiedPatchSets).addVerified("bt1", patchSet);
+    }
+
+    @Test
+    public void verifiedPatchSetIsQueuedByDefault() {
+        GerritPatchSet patchSet = createPatchSet("refs/changes/1", "abc");
+        patchSets.add(patchSet);
+        when(verifiedPatchSets.isVerified("bt1", patchSet)).thenReturn(true);
+
+        triggerBuild();
+
+        verify(buildPromotion).addToQueue("Gerrit");
+    }
+}
@@ -7,12 +7,18 @@ import org.hamcrest.core.IsNot;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class GerritPolledTriggerContextTests {
@@ -55,6 +61,27 @@ public class GerritPolledTriggerContextTests {
         assertThat(sut.getHost(), is("host"));
     }
 
+    @Test
+    public void firstHostIsPrimary() {
+        parameters.put(Parameters.HOST, "primary, replica1,replica2");
+
+        assertThat(sut.getHost(), is("primary"));
+    }
+
+    @Test
+    public void otherHostsAreReplicas() {
+        parameters.put(Parameters.HOST, "primary, replica1,replica2");
+
+        assertThat(sut.getReplicaHosts(), is(Arrays.asList("replica1", "replica2")));
+    }
+
+    @Test
+    public void singleHostHasNoReplicas() {
+        parameters.put(Parameters.HOST, "host");
+
+        assertTrue(sut.getReplicaHosts().isEmpty());
+    }
+
     @Test
     public void trimmedPassphraseIsFetched() {
         parameters.put(Parameters.PASSPHRASE, "foo  ");
@@ -167,6 +194,20 @@ public class GerritPolledTriggerContextTests {
         assertFalse(sut.hasBranchParameter());
     }
 
+    @Test
+    public void skipTrivialChangesIsFetched() {
+        parameters.put(Parameters.SKIP_TRIVIAL_CHANGES, "true");
+
+        assertTrue(sut.isSkipTrivialChanges());
+    }
+
+    @Test
+    public void missingSkipTrivialChangesIsHandled() {
+        parameters.put(Parameters.SKIP_TRIVIAL_CHANGES, null);
+
+        assertFalse(sut.isSkipTrivialChanges());
+    }
+
     @Test
     public void currentTimeIsSetToTimestamp() {
         when(customDataStorage.getValues()).thenReturn(null);
@@ -175,4 +216,50 @@ public class GerritPolledTriggerContextTests {
 
         assertThat(storedValues.get("timestamp"), IsNot.not("1390482249000"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void queuedRevisionIsStored() {
+        sut.addQueuedRevision("abc");
+
+        verify(customDataStorage).putValue("revisions", "abc");
+    }
+
+    @Test
+    public void storedRevisionIsQueued() {
+        storedValues.put("revisions", "abc,def");
+
+        assertTrue(sut.isRevisionQueued("def"));
+        assertFalse(sut.isRevisionQueued("ghi"));
+    }
+
+    @Test
+    public void newRevisionIsAppendedToStoredRevisions() {
+        storedValues.put("revisions", "abc");
+
+        sut.addQueuedRevision("def");
+
+        verify(customDataStorage).putValue("revisions", "abc,def");
+    }
+
+    @Test
+    public void deferredPatchSetsAreReadFromStorage() {
+        GerritPatchSet patchSet = new GerritPatchSet.Builder("project", "master", "refs/changes/48/2448/1", 1000L)
+                .changeNumber("2448")
+                .revision("abc")
+                .build();
+        storedValues.put("deferred", patchSet.toRecord());
+
+        List<GerritPatchSet> deferred = sut.getDeferredPatchSets();
+
+        assertThat(deferred.size(), is(1));
+        assertThat(deferred.get(0).getRef(), is("refs/changes/48/2448/1"));
+        assertThat(deferred.get(0).getRevision(), is("abc"));
+    }
+
+    @Test
+    public void emptyDeferredPatchSetsAreNotStoredAgain() {
+        sut.setDeferredPatchSets(new ArrayList<GerritPatchSet>());
+
+        verify(customDataStorage, never()).putValue(anyString(), anyString());
+    }
+}
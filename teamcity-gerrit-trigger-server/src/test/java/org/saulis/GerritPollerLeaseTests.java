@@ -0,0 +1,110 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class GerritPollerLeaseTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GerritPollerLease node1;
+    private GerritPollerLease node2;
+
+    @Before
+    public void setup() {
+        node1 = new GerritPollerLease(folder.getRoot(), "node1", 200L);
+        node2 = new GerritPollerLease(folder.getRoot(), "node2", 200L);
+    }
+
+    @Test
+    public void firstNodeAcquiresLease() {
+        assertThat(node1.tryAcquire("host"), is(1L));
+    }
+
+    @Test
+    public void otherNodeCannotAcquireHeldLease() {
+        node1.tryAcquire("host");
+
+        assertThat(node2.tryAcquire("host"), is(-1L));
+    }
+
+    @Test
+    public void leasesArePerHost() {
+        node1.tryAcquire("host1");
+
+        assertThat(node2.tryAcquire("host2"), is(1L));
+    }
+
+    @Test
+    public void holderRenewsLeaseWithSameEpoch() {
+        long epoch = node1.tryAcquire("host");
+
+        assertThat(node1.tryAcquire("host"), is(epoch));
+        assertTrue(node1.isHeld("host", epoch));
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOverWithNewEpoch() throws InterruptedException {
+        long epoch = node1.tryAcquire("host");
+        Thread.sleep(300L);
+
+        long newEpoch = node2.tryAcquire("host");
+
+        assertThat(newEpoch, is(epoch + 1));
+        assertFalse(node1.isHeld("host", epoch));
+        assertThat(node1.tryAcquire("host"), is(-1L));
+    }
+
+    @Test
+    public void releasedLeaseIsTakenOverRightAway() {
+        node1.tryAcquire("host");
+        node1.release("host");
+
+        assertThat(node2.tryAcquire("host"), is(2L));
+    }
+
+    @Test
+    public void allAcquiredLeasesAreReleased() {
+        node1.tryAcquire("host1");
+        node1.tryAcquire("host2");
+        node1.releaseAll();
+
+        assertTrue(node2.tryAcquire("host1") > 0);
+        assertTrue(node2.tryAcquire("host2") > 0);
+    }
+
+    @Test
+    public void leaseIsRenewedOnlyWhenCloseToExpiry() throws Exception {
+        File leaseFile = new File(folder.getRoot(), "host.lease");
+        node1.tryAcquire("host");
+        String acquired = readFile(leaseFile);
+
+        node1.tryAcquire("host");
+        assertThat(readFile(leaseFile), is(acquired));
+
+        Thread.sleep(150L);
+        node1.tryAcquire("host");
+        assertFalse(readFile(leaseFile).equals(acquired));
+    }
+
+    private String readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.readLine();
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GerritRelationChainsTests {
+
+    private List<GerritPatchSet> patchSets;
+    private Map<String, List<GerritPatchSet>> ancestors;
+
+    @Before
+    public void setup() {
+        patchSets = new ArrayList<GerritPatchSet>();
+        ancestors = new HashMap<String, List<GerritPatchSet>>();
+    }
+
+    private GerritPatchSet addPatchSet(String changeNumber, String revision, String... parents) {
+        GerritPatchSet patchSet = new GerritPatchSet.Builder("project", "master", "refs/changes/" + changeNumber, 1000L)
+                .changeNumber(changeNumber)
+                .patchSetNumber("1")
+                .revision(revision)
+                .parents(Arrays.asList(parents))
+                .build();
+        patchSets.add(patchSet);
+
+        return patchSet;
+    }
+
+    @Test
+    public void unrelatedChangesAreAllTips() {
+        addPatchSet("1", "a", "master");
+        addPatchSet("2", "b", "master");
+
+        assertThat(GerritRelationChains.getTips(patchSets, ancestors).size(), is(2));
+    }
+
+    @Test
+    public void onlyTipOfChainIsReturned() {
+        GerritPatchSet first = addPatchSet("1", "a", "master");
+        GerritPatchSet second = addPatchSet("2", "b", "a");
+        GerritPatchSet tip = addPatchSet("3", "c", "b");
+
+        List<GerritPatchSet> tips = GerritRelationChains.getTips(patchSets, ancestors);
+
+        assertThat(tips.size(), is(1));
+        assertThat(tips.get(0), is(tip));
+        assertThat(ancestors.get(tip.getRef()), is(Arrays.asList(second, first)));
+    }
+
+    @Test
+    public void chainWithParentFromEarlierPollIsCollapsed() {
+        addPatchSet("2", "b", "a");
+        GerritPatchSet tip = addPatchSet("3", "c", "b");
+
+        List<GerritPatchSet> tips = GerritRelationChains.getTips(patchSets, ancestors);
+
+        assertThat(tips, is(Arrays.asList(tip)));
+        assertThat(ancestors.get(tip.getRef()).size(), is(1));
+    }
+
+    @Test
+    public void patchSetsWithoutRevisionAreKept() {
+        addPatchSet("1", null);
+
+        assertThat(GerritRelationChains.getTips(patchSets, ancestors).size(), is(1));
+    }
+}
@@ -0,0 +1,96 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class GerritReplicaOverlapTests {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long NOW = 100 * MINUTE;
+
+    private GerritReplicaOverlap sut;
+
+    @Before
+    public void setup() {
+        sut = new GerritReplicaOverlap();
+    }
+
+    private GerritPatchSet patchSet(String ref, long createdOn) {
+        return new GerritPatchSet("project", "master", ref, createdOn);
+    }
+
+    @Test
+    public void lookbackIsMinimalWithoutLatePatchSets() {
+        assertThat(sut.getLookbackMillis("primary", NOW), is(MINUTE));
+    }
+
+    @Test
+    public void lookbackCoversLatePatchSets() {
+        sut.addQuery("trigger", "primary", new Date(NOW - 3 * MINUTE), NOW - MINUTE,
+                Collections.<GerritPatchSet>emptyList(), new Date(NOW - MINUTE));
+
+        // Created 90 seconds before the previous query, but not returned by it.
+        sut.addQuery("trigger", "primary", new Date(NOW - 4 * MINUTE), NOW,
+                Arrays.asList(patchSet("late", NOW - MINUTE - 90 * 1000L)), new Date(NOW));
+
+        assertThat(sut.getLookbackMillis("primary", NOW), is(3 * MINUTE));
+        assertThat(sut.getLookbackMillis("other", NOW), is(MINUTE));
+    }
+
+    @Test
+    public void lookbackIsLimited() {
+        sut.addQuery("trigger", "primary", new Date(NOW - 60 * MINUTE), NOW - MINUTE,
+                Collections.<GerritPatchSet>emptyList(), new Date(NOW - MINUTE));
+        sut.addQuery("trigger", "primary", new Date(NOW - 60 * MINUTE), NOW,
+                Arrays.asList(patchSet("late", NOW - 30 * MINUTE)), new Date(NOW));
+
+        assertThat(sut.getLookbackMillis("primary", NOW), is(5 * MINUTE));
+    }
+
+    @Test
+    public void latePatchSetsAreForgotten() {
+        sut.addQuery("trigger", "primary", new Date(NOW - 3 * MINUTE), NOW - MINUTE,
+                Collections.<GerritPatchSet>emptyList(), new Date(NOW - MINUTE));
+        sut.addQuery("trigger", "primary", new Date(NOW - 4 * MINUTE), NOW,
+                Arrays.asList(patchSet("late", NOW - 2 * MINUTE)), new Date(NOW));
+
+        assertThat(sut.getLookbackMillis("primary", NOW), is(2 * MINUTE));
+        assertThat(sut.getLookbackMillis("primary", NOW + 61 * MINUTE), is(MINUTE));
+    }
+
+    @Test
+    public void patchSetsReportedInTimeDontWidenLookback() {
+        sut.addQuery("trigger", "primary", new Date(NOW - 2 * MINUTE), NOW - MINUTE,
+                Arrays.asList(patchSet("first", NOW - 90 * 1000L)), new Date(NOW - MINUTE));
+        sut.addQuery("trigger", "primary", new Date(NOW - 3 * MINUTE), NOW,
+                Arrays.asList(patchSet("first", NOW - 90 * 1000L), patchSet("second", NOW - 30 * 1000L)), new Date(NOW));
+
+        assertThat(sut.getLookbackMillis("primary", NOW), is(MINUTE));
+    }
+
+    @Test
+    public void reportedRefsAreKeptPerTrigger() {
+        sut.addReported("trigger", Arrays.asList(patchSet("ref", NOW)), new Date(NOW));
+
+        assertTrue(sut.getReportedRefs("trigger").contains("ref"));
+        assertFalse(sut.getReportedRefs("other").contains("ref"));
+    }
+
+    @Test
+    public void reportedRefsOlderThanLookbackAreForgotten() {
+        sut.addReported("trigger", Arrays.asList(patchSet("old", NOW - 6 * MINUTE), patchSet("new", NOW - MINUTE)),
+                new Date(NOW));
+
+        assertFalse(sut.getReportedRefs("trigger").contains("old"));
+        assertTrue(sut.getReportedRefs("trigger").contains("new"));
+    }
+}
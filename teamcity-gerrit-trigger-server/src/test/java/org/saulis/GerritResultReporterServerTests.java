@@ -0,0 +1,169 @@
+package org.saulis;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+import org.apache.sshd.SshServer;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.CommandFactory;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.PublickeyAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GerritResultReporterServerTests {
+
+    private static final String REVIEW = "gerrit review --verified +1 --message \"Build #42 succeeded.\" 2448,7";
+
+    private SshServer server;
+    private ScheduledExecutorService executor;
+    private GerritSessionPool sessionPool;
+    private GerritResultReporter sut;
+    private GerritConnection connection;
+    private File keyDirectory;
+    private final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<ServerSession> sessions = Collections.synchronizedSet(new HashSet<ServerSession>());
+    private final AtomicInteger hangs = new AtomicInteger();
+
+    @Before
+    public void setup() throws Exception {
+        keyDirectory = File.createTempFile("gerrit-keys", "");
+        keyDirectory.delete();
+        keyDirectory.mkdir();
+
+        File privateKey = new File(keyDirectory, "id_rsa");
+        KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 1024).writePrivateKey(privateKey.getPath());
+
+        server = SshServer.setUpDefaultServer();
+        server.setPort(getFreePort());
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(new File(keyDirectory, "host.ser").getPath()));
+        server.setPublickeyAuthenticator(new PublickeyAuthenticator() {
+            public boolean authenticate(String username, PublicKey key, ServerSession session) {
+                sessions.add(session);
+                return true;
+            }
+        });
+        server.setCommandFactory(new CommandFactory() {
+            public Command createCommand(String command) {
+                commands.add(command);
+                return new StubCommand(hangs.getAndDecrement() <= 0);
+            }
+        });
+        server.start();
+
+        executor = Executors.newSingleThreadScheduledExecutor();
+        sessionPool = new GerritSessionPool(new JSch(), 60 * 1000L, server.getPort());
+        sut = new GerritResultReporter(sessionPool, executor, 60 * 1000L, 1000L);
+        connection = new GerritConnection("builder", "localhost", privateKey.getPath(), null);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        executor.shutdownNow();
+        sessionPool.close();
+        server.stop(true);
+
+        for(File file : keyDirectory.listFiles()) {
+            file.delete();
+        }
+
+        keyDirectory.delete();
+    }
+
+    private static int getFreePort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void reviewsAreSentOverOneSession() {
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.report(connection, new GerritReview("2449", "1", false, "Build #43 failed."));
+        sut.flush();
+
+        assertThat(commands.size(), is(2));
+        assertThat(commands.get(0), is(REVIEW));
+        assertThat(commands.get(1), is("gerrit review --verified -1 --message \"Build #43 failed.\" 2449,1"));
+        assertThat(sessions.size(), is(1));
+    }
+
+    @Test
+    public void hangingReviewIsRetriedOverNewSession() {
+        hangs.set(1);
+
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.flush();
+
+        assertThat(commands.size(), is(2));
+        assertThat(commands.get(1), is(REVIEW));
+        assertThat(sessions.size(), is(2));
+    }
+
+    @Test
+    public void alwaysHangingReviewIsGivenUpOn() {
+        hangs.set(Integer.MAX_VALUE);
+
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.flush();
+
+        assertThat(commands.size(), is(3));
+    }
+
+    private static class StubCommand implements Command {
+
+        private final boolean exits;
+        private ExitCallback callback;
+
+        private StubCommand(boolean exits) {
+            this.exits = exits;
+        }
+
+        public void setInputStream(InputStream in) {
+        }
+
+        public void setOutputStream(OutputStream out) {
+        }
+
+        public void setErrorStream(OutputStream err) {
+        }
+
+        public void setExitCallback(ExitCallback callback) {
+            this.callback = callback;
+        }
+
+        public void start(Environment env) {
+            // A hanging command never exits, the client has to give up on it.
+            if(exits) {
+                callback.onExit(0);
+            }
+        }
+
+        public void destroy() {
+        }
+    }
+}
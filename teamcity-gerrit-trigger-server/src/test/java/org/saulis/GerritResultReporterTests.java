@@ -0,0 +1,141 @@
+package org.saulis;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class GerritResultReporterTests {
+
+    private GerritResultReporter sut;
+    private JSch jsch;
+    private Session session;
+    private ChannelExec channel;
+    private ScheduledExecutorService executor;
+    private GerritConnection connection;
+
+    @Before
+    public void setup() throws JSchException, IOException {
+        jsch = mock(JSch.class);
+        session = mock(Session.class);
+        channel = mock(ChannelExec.class);
+        executor = mock(ScheduledExecutorService.class);
+        sut = new GerritResultReporter(new GerritSessionPool(jsch), executor);
+        connection = new GerritConnection("builder", "host.com", "/keys/id_rsa", null);
+
+        when(jsch.getSession(anyString(), anyString(), anyInt())).thenReturn(session);
+        when(session.isConnected()).thenReturn(true);
+        when(session.openChannel("exec")).thenReturn(channel);
+        when(channel.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(channel.isClosed()).thenReturn(true);
+    }
+
+    @Test
+    public void reviewIsPosted() {
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.flush();
+
+        verify(channel).setCommand("gerrit review --verified +1 --message \"Build #42 succeeded.\" 2448,7");
+    }
+
+    @Test
+    public void messageIsQuoted() {
+        sut.report(connection, new GerritReview("2448", "7", false, "Build \"nightly\" failed."));
+        sut.flush();
+
+        verify(channel).setCommand("gerrit review --verified -1 --message \"Build \\\"nightly\\\" failed.\" 2448,7");
+    }
+
+    @Test
+    public void reviewsAreBatchedIntoOneSession() throws JSchException {
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.report(connection, new GerritReview("2449", "1", false, "Build #43 failed."));
+        sut.flush();
+
+        verify(jsch, times(1)).getSession(anyString(), anyString(), anyInt());
+        verify(channel, times(2)).connect(anyInt());
+        verify(executor, times(1)).schedule(any(Runnable.class), eq(5000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void flushIsScheduledPerHost() {
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.report(new GerritConnection("builder", "other.com", "/keys/id_rsa", null),
+                new GerritReview("1", "1", true, "Build #43 succeeded."));
+
+        verify(executor, times(2)).schedule(any(Runnable.class), eq(5000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedSessionIsDropped() throws JSchException {
+        when(session.openChannel("exec")).thenThrow(new JSchException("session is down"));
+
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.flush();
+
+        verify(session, atLeastOnce()).disconnect();
+    }
+
+    @Test
+    public void failedReviewIsRetried() throws JSchException {
+        when(session.openChannel("exec"))
+                .thenThrow(new JSchException("session is down"))
+                .thenReturn(channel);
+
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.report(connection, new GerritReview("2449", "1", false, "Build #43 failed."));
+        sut.flush();
+
+        verify(channel).setCommand("gerrit review --verified +1 --message \"Build #42 succeeded.\" 2448,7");
+        verify(channel).setCommand("gerrit review --verified -1 --message \"Build #43 failed.\" 2449,1");
+    }
+
+    @Test
+    public void failingReviewIsGivenUpOn() throws JSchException {
+        when(session.openChannel("exec")).thenThrow(new JSchException("session is down"));
+
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.flush();
+
+        verify(session, times(3)).openChannel("exec");
+    }
+
+    @Test
+    public void hangingReviewIsAbandonedAndRetried() throws JSchException {
+        sut = new GerritResultReporter(new GerritSessionPool(jsch), executor, 5000L, 0L);
+        when(channel.isClosed()).thenReturn(false, true);
+
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.flush();
+
+        verify(channel, times(2)).connect(anyInt());
+        verify(channel, times(2)).disconnect();
+        verify(session).disconnect();
+    }
+
+    @Test
+    public void reviewsNotPostedInTimeAreDropped() throws JSchException {
+        sut = new GerritResultReporter(new GerritSessionPool(jsch), executor, 5000L, 60 * 1000L);
+        when(channel.isClosed()).thenReturn(false);
+
+        sut.report(connection, new GerritReview("2448", "7", true, "Build #42 succeeded."));
+        sut.report(connection, new GerritReview("2449", "1", false, "Build #43 failed."));
+        sut.flush(100L);
+        sut.flush();
+
+        verify(channel, times(1)).connect(anyInt());
+    }
+}
@@ -0,0 +1,131 @@
+package org.saulis;
+
+import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildType;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class GerritServerLifecycleTests {
+
+    private GerritServerLifecycle sut;
+    private GerritClient gerritClient;
+    private GerritSessionPool sessionPool;
+    private GerritResultReporter resultReporter;
+    private GerritPollerLease lease;
+    private ScheduledExecutorService reportExecutor;
+    private ScheduledExecutorService warmUpExecutor;
+    private List<BuildTriggerDescriptor> triggers;
+
+    @Before
+    public void setup() {
+        ProjectManager projectManager = mock(ProjectManager.class);
+        gerritClient = mock(GerritClient.class);
+        sessionPool = mock(GerritSessionPool.class);
+        resultReporter = mock(GerritResultReporter.class);
+        lease = mock(GerritPollerLease.class);
+        reportExecutor = mock(ScheduledExecutorService.class);
+        warmUpExecutor = mock(ScheduledExecutorService.class);
+        triggers = new ArrayList<BuildTriggerDescriptor>();
+
+        SBuildType buildType = mock(SBuildType.class);
+        when(projectManager.getAllBuildTypes()).thenReturn(Arrays.asList(buildType));
+        when(buildType.getBuildTriggersCollection()).thenReturn(triggers);
+
+        sut = new GerritServerLifecycle(projectManager, "gerritBuildTrigger", gerritClient, sessionPool,
+                resultReporter, lease, reportExecutor, warmUpExecutor);
+    }
+
+    private void addTrigger(String triggerName, String host) {
+        BuildTriggerDescriptor trigger = mock(BuildTriggerDescriptor.class);
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put(Parameters.USERNAME, "builder");
+        parameters.put(Parameters.HOST, host);
+
+        when(trigger.getTriggerName()).thenReturn(triggerName);
+        when(trigger.getParameters()).thenReturn(parameters);
+        triggers.add(trigger);
+    }
+
+    private List<String> getConnectionKeys() {
+        List<String> keys = new ArrayList<String>();
+
+        for(GerritConnection connection : sut.getConnections()) {
+            keys.add(connection.getKey());
+        }
+
+        return keys;
+    }
+
+    @Test
+    public void eachHostIsConnectedOnce() {
+        addTrigger("gerritBuildTrigger", "primary.com, replica.com");
+        addTrigger("gerritBuildTrigger", "primary.com");
+
+        assertThat(getConnectionKeys(), is(Arrays.asList("builder@primary.com", "builder@replica.com")));
+    }
+
+    @Test
+    public void otherTriggersAreIgnored() {
+        addTrigger("vcsTrigger", "other.com");
+
+        assertThat(getConnectionKeys().size(), is(0));
+    }
+
+    @Test
+    public void connectionsAreStaggeredAtStartup() {
+        addTrigger("gerritBuildTrigger", "primary.com, replica.com");
+
+        sut.serverStartup();
+
+        verify(warmUpExecutor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+        verify(warmUpExecutor).schedule(any(Runnable.class), eq(1000L), eq(TimeUnit.MILLISECONDS));
+        verifyZeroInteractions(reportExecutor);
+    }
+
+    @Test
+    public void pollsAreDrainedBeforeSessionsAreClosed() throws InterruptedException {
+        when(gerritClient.shutdown(anyLong())).thenReturn(true);
+        when(reportExecutor.awaitTermination(anyLong(), any(TimeUnit.class))).thenReturn(true);
+
+        sut.serverShutdown();
+
+        InOrder inOrder = inOrder(gerritClient, reportExecutor, resultReporter, lease, sessionPool);
+        inOrder.verify(gerritClient).shutdown(anyLong());
+        inOrder.verify(reportExecutor).shutdown();
+        inOrder.verify(reportExecutor).awaitTermination(anyLong(), any(TimeUnit.class));
+        inOrder.verify(resultReporter).flush(anyLong());
+        inOrder.verify(lease).releaseAll();
+        inOrder.verify(sessionPool).close();
+        verify(reportExecutor, never()).shutdownNow();
+        verify(warmUpExecutor).shutdownNow();
+    }
+
+    @Test
+    public void reviewsStillPostingAreInterrupted() throws InterruptedException {
+        when(gerritClient.shutdown(anyLong())).thenReturn(true);
+        when(reportExecutor.awaitTermination(anyLong(), any(TimeUnit.class))).thenReturn(false);
+
+        sut.serverShutdown();
+
+        InOrder inOrder = inOrder(reportExecutor, resultReporter);
+        inOrder.verify(reportExecutor).shutdownNow();
+        inOrder.verify(resultReporter).flush(anyLong());
+    }
+}
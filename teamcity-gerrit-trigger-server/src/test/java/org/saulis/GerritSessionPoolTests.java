@@ -0,0 +1,114 @@
+package org.saulis;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class GerritSessionPoolTests {
+
+    private GerritSessionPool sut;
+    private JSch jsch;
+    private Session session;
+    private GerritConnection connection;
+
+    @Before
+    public void setup() throws JSchException {
+        jsch = mock(JSch.class);
+        session = mock(Session.class);
+        sut = new GerritSessionPool(jsch);
+        connection = new GerritConnection("builder", "host.com", "/keys/id_rsa", null);
+
+        when(jsch.getSession(anyString(), anyString(), anyInt())).thenReturn(session);
+        when(session.isConnected()).thenReturn(true);
+    }
+
+    @Test
+    public void sessionIsReused() throws JSchException {
+        sut.getSession(connection);
+        Session reused = sut.getSession(connection);
+
+        assertThat(reused, is(session));
+        verify(jsch, times(1)).getSession("builder", "host.com", 29418);
+    }
+
+    @Test
+    public void sessionsAreNotSharedBetweenHosts() throws JSchException {
+        sut.getSession(connection);
+        sut.getSession(new GerritConnection("builder", "other.com", "/keys/id_rsa", null));
+
+        verify(jsch).getSession("builder", "other.com", 29418);
+    }
+
+    @Test
+    public void disconnectedSessionIsReplaced() throws JSchException {
+        sut.getSession(connection);
+        when(session.isConnected()).thenReturn(false);
+
+        sut.getSession(connection);
+
+        verify(jsch, times(2)).getSession(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void idleSessionIsReplaced() throws JSchException {
+        sut = new GerritSessionPool(jsch, 0L);
+
+        sut.getSession(connection);
+        sut.getSession(connection);
+
+        verify(jsch, times(2)).getSession(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void invalidatedSessionIsDisconnected() throws JSchException {
+        sut.getSession(connection);
+
+        sut.invalidate(connection, session);
+        sut.getSession(connection);
+
+        verify(session).disconnect();
+        verify(jsch, times(2)).getSession(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void replacedSessionIsNotInvalidated() throws JSchException {
+        Session replacement = mock(Session.class);
+        when(replacement.isConnected()).thenReturn(true);
+        sut.getSession(connection);
+        sut.invalidate(connection, session);
+        when(jsch.getSession(anyString(), anyString(), anyInt())).thenReturn(replacement);
+        sut.getSession(connection);
+
+        // Another user failing on the old session.
+        sut.invalidate(connection, session);
+
+        assertThat(sut.getSession(connection), is(replacement));
+        verify(replacement, never()).disconnect();
+    }
+
+    @Test
+    public void identityIsAddedOnce() throws JSchException {
+        sut.getSession(connection);
+        sut.invalidate(connection, session);
+        sut.getSession(connection);
+
+        verify(jsch, times(1)).addIdentity("/keys/id_rsa");
+    }
+
+    @Test
+    public void closeDisconnectsSessions() throws JSchException {
+        sut.getSession(connection);
+
+        sut.close();
+
+        verify(session).disconnect();
+    }
+}
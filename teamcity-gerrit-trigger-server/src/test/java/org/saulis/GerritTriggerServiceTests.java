@@ -4,6 +4,10 @@ package org.saulis;
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.buildTriggers.BuildTriggeringPolicy;
 import jetbrains.buildServer.serverSide.BuildCustomizerFactory;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.web.openapi.PluginDescriptor;
 import org.junit.Before;
 import org.junit.Test;
@@ -29,7 +33,12 @@ public class GerritTriggerServiceTests {
         buildTriggerDescriptor = mockBuildTriggerDescriptor();
 
 
-        service = new GerritTriggerService(buildCustomizerFactory, pluginDescriptor);
+        ServerPaths serverPaths = mock(ServerPaths.class);
+        EventDispatcher<BuildServerListener> eventDispatcher = mock(EventDispatcher.class);
+
+        ProjectManager projectManager = mock(ProjectManager.class);
+
+        service = new GerritTriggerService(buildCustomizerFactory, pluginDescriptor, serverPaths, eventDispatcher, projectManager);
     }
 
     private BuildTriggerDescriptor mockBuildTriggerDescriptor() {
@@ -81,4 +90,13 @@ public class GerritTriggerServiceTests {
 
         assertThat(description, is("Listening to fooject/barnch on gerrit.foo.bar"));
     }
+
+    @Test
+    public void descriptionShowsPrimaryHostAndReplicas() {
+        parameters.put(Parameters.HOST, "gerrit.foo.bar, replica1.foo.bar,replica2.foo.bar");
+
+        String description = describeTrigger();
+
+        assertThat(description, is("Listening on gerrit.foo.bar (2 replicas)"));
+    }
 }
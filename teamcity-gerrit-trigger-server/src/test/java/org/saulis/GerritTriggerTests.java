@@ -2,6 +2,10 @@ package org.saulis;
 
 import jetbrains.buildServer.buildTriggers.BuildTriggeringPolicy;
 import jetbrains.buildServer.serverSide.BuildCustomizerFactory;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.web.openapi.PluginDescriptor;
 import org.junit.Before;
 import org.junit.Test;
@@ -20,7 +24,12 @@ public class GerritTriggerTests {
         BuildCustomizerFactory buildCustomizerFactory = mock(BuildCustomizerFactory.class);
         PluginDescriptor pluginDescriptor = mock(PluginDescriptor.class);
 
-        service = new GerritTriggerService(buildCustomizerFactory, pluginDescriptor);
+        ServerPaths serverPaths = mock(ServerPaths.class);
+        EventDispatcher<BuildServerListener> eventDispatcher = mock(EventDispatcher.class);
+
+        ProjectManager projectManager = mock(ProjectManager.class);
+
+        service = new GerritTriggerService(buildCustomizerFactory, pluginDescriptor, serverPaths, eventDispatcher, projectManager);
     }
 
     @Test
@@ -0,0 +1,86 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GerritVerifiedPatchSetsTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GerritVerifiedPatchSets sut;
+
+    @Before
+    public void setup() {
+        sut = new GerritVerifiedPatchSets(folder.getRoot());
+    }
+
+    private GerritPatchSet createPatchSet(String patchSetNumber, String revision, String kind) {
+        return new GerritPatchSet.Builder("project", "master", "refs/changes/48/2448/" + patchSetNumber, 1000L)
+                .changeNumber("2448")
+                .patchSetNumber(patchSetNumber)
+                .revision(revision)
+                .kind(kind)
+                .build();
+    }
+
+    @Test
+    public void unknownPatchSetIsNotVerified() {
+        assertFalse(sut.isVerified("bt1", createPatchSet("1", "abc", "REWORK")));
+    }
+
+    @Test
+    public void sameRevisionIsVerified() {
+        sut.addVerified("bt1", "project", "2448", "1", "abc");
+
+        assertTrue(sut.isVerified("bt1", createPatchSet("3", "abc", "REWORK")));
+    }
+
+    @Test
+    public void verifiedPatchSetsAreKeptPerBuildType() {
+        sut.addVerified("bt1", "project", "2448", "1", "abc");
+
+        assertFalse(sut.isVerified("bt2", createPatchSet("1", "abc", "REWORK")));
+    }
+
+    @Test
+    public void noCodeChangeAfterVerifiedPatchSetIsVerified() {
+        sut.addVerified("bt1", "project", "2448", "1", "abc");
+
+        assertTrue(sut.isVerified("bt1", createPatchSet("2", "def", "NO_CODE_CHANGE")));
+    }
+
+    @Test
+    public void reworkAfterVerifiedPatchSetIsNotVerified() {
+        sut.addVerified("bt1", "project", "2448", "1", "abc");
+
+        assertFalse(sut.isVerified("bt1", createPatchSet("2", "def", "REWORK")));
+        assertFalse(sut.isVerified("bt1", createPatchSet("2", "def", "TRIVIAL_REBASE")));
+    }
+
+    @Test
+    public void verifiedPatchSetsAreReadFromDisk() {
+        sut.addVerified("bt1", "project", "2448", "1", "abc");
+
+        GerritVerifiedPatchSets reloaded = new GerritVerifiedPatchSets(folder.getRoot());
+
+        assertTrue(reloaded.isVerified("bt1", createPatchSet("3", "abc", "REWORK")));
+    }
+
+    @Test
+    public void oldestEntriesAreDropped() {
+        for(int i = 0; i < 2001; i++) {
+            sut.addVerified("bt1", null, null, null, "revision" + i);
+        }
+
+        assertFalse(sut.isVerified("bt1", createPatchSet("1", "revision0", "REWORK")));
+        assertTrue(sut.isVerified("bt1", createPatchSet("1", "revision2000", "REWORK")));
+        assertFalse(new GerritVerifiedPatchSets(folder.getRoot()).isVerified("bt1", createPatchSet("1", "revision0", "REWORK")));
+    }
+}
@@ -0,0 +1,235 @@
+package org.saulis;
+
+import com.jcraft.jsch.JSch;
+import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
+import jetbrains.buildServer.buildTriggers.PolledTriggerContext;
+import jetbrains.buildServer.serverSide.BuildCustomizer;
+import jetbrains.buildServer.serverSide.BuildCustomizerFactory;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.CustomDataStorage;
+import jetbrains.buildServer.serverSide.SBuildType;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays recorded poll traces offline.
+ */
+public class GerritPollReplay {
+
+    public static void main(String[] args) throws IOException {
+        int iterations = 1;
+        List<File> traces = new ArrayList<File>();
+
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-iterations") && i + 1 < args.length) {
+                iterations = Integer.parseInt(args[++i]);
+            } else {
+                File file = new File(args[i]);
+
+                if(file.isDirectory()) {
+                    for(File trace : GerritPollRecorder.getTraces(file)) {
+                        traces.add(trace);
+                    }
+                } else {
+                    traces.add(file);
+                }
+            }
+        }
+
+        if(traces.isEmpty()) {
+            System.err.println("Usage: GerritPollReplay [-iterations N] trace-file-or-directory...");
+            System.exit(1);
+        }
+
+        for(File file : traces) {
+            GerritPollTrace trace = readTrace(file);
+            Result result = null;
+
+            for(int i = 0; i < iterations; i++) {
+                result = replay(trace, result);
+            }
+
+            System.out.println(String.format("%s: trigger %s, host %s, recorded %s, %s page(s), %s patch set(s), %s build(s), parse %.2f ms, trigger %.2f ms%s",
+                    file.getName(), trace.getTriggerKey(), trace.getHost(), trace.getSpans(), trace.getPages().size(),
+                    result.patchSets, result.builds / iterations,
+                    result.parseNanos / iterations / 1e6, result.triggerNanos / iterations / 1e6,
+                    trace.getError() == null ? "" : ", failed with " + trace.getError()));
+        }
+    }
+
+    private static GerritPollTrace readTrace(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return GerritPollTrace.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Runs the trace through a new trigger, adding the times to the previous iterations.
+     */
+    static Result replay(final GerritPollTrace trace, Result previous) throws IOException {
+        final Result result = previous == null ? new Result() : previous;
+        final List<GerritPatchSet> parsed = new ArrayList<GerritPatchSet>();
+
+        GerritClient client = new GerritClient(new JSch()) {
+            @Override
+            public List<GerritPatchSet> getNewPatchSets(GerritPolledTriggerContext context) {
+                long started = System.nanoTime();
+
+                try {
+                    parsed.addAll(readRecordedOutput(context, trace));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+
+                result.parseNanos += System.nanoTime() - started;
+                return new ArrayList<GerritPatchSet>(parsed);
+            }
+        };
+
+        Map<String, String> storage = new HashMap<String, String>();
+        storage.put("timestamp", String.valueOf(trace.getTimestamp().getTime()));
+
+        File verifiedDirectory = File.createTempFile("gerrit-replay", "");
+        if(!verifiedDirectory.delete() || !verifiedDirectory.mkdir()) {
+            throw new IOException("Failed to create " + verifiedDirectory);
+        }
+
+        try {
+            GerritPolledBuildTrigger trigger = new GerritPolledBuildTrigger(client, createBuildCustomizerFactory(result),
+                    new GerritVerifiedPatchSets(verifiedDirectory));
+            PolledTriggerContext context = createContext(trace, storage);
+
+            // The trigger parses the output while it runs, that time is reported separately.
+            long parseNanos = result.parseNanos;
+            long started = System.nanoTime();
+            trigger.triggerBuild(context);
+            result.triggerNanos += System.nanoTime() - started - (result.parseNanos - parseNanos);
+        } finally {
+            for(File file : verifiedDirectory.listFiles()) {
+                file.delete();
+            }
+            verifiedDirectory.delete();
+        }
+
+        result.patchSets = parsed.size();
+        return result;
+    }
+
+    private static PolledTriggerContext createContext(GerritPollTrace trace, final Map<String, String> storage) {
+        String[] triggerKey = trace.getTriggerKey() == null ? new String[0] : trace.getTriggerKey().split("/", 2);
+
+        Map<String, Object> buildType = new HashMap<String, Object>();
+        buildType.put("getBuildTypeId", triggerKey.length > 0 ? triggerKey[0] : "replay");
+
+        Map<String, Object> descriptor = new HashMap<String, Object>();
+        descriptor.put("getId", triggerKey.length > 1 ? triggerKey[1] : "replay");
+        descriptor.put("getParameters", trace.getParameters());
+
+        Map<String, Object> dataStorage = new HashMap<String, Object>();
+        dataStorage.put("getValues", storage);
+
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("getBuildType", fake(SBuildType.class, buildType));
+        context.put("getTriggerDescriptor", fake(BuildTriggerDescriptor.class, descriptor));
+        context.put("getCustomDataStorage", fake(CustomDataStorage.class, dataStorage, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if(method.getName().equals("putValue")) {
+                    storage.put((String)args[0], (String)args[1]);
+                }
+                return null;
+            }
+        }));
+
+        return fake(PolledTriggerContext.class, context);
+    }
+
+    private static BuildCustomizerFactory createBuildCustomizerFactory(final Result result) {
+        Map<String, Object> promotion = new HashMap<String, Object>();
+        BuildPromotion buildPromotion = fake(BuildPromotion.class, promotion, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if(method.getName().equals("addToQueue")) {
+                    result.builds++;
+                }
+                return null;
+            }
+        });
+
+        Map<String, Object> customizer = new HashMap<String, Object>();
+        customizer.put("createPromotion", buildPromotion);
+
+        Map<String, Object> factory = new HashMap<String, Object>();
+        factory.put("createBuildCustomizer", fake(BuildCustomizer.class, customizer));
+
+        return fake(BuildCustomizerFactory.class, factory);
+    }
+
+    private static <T> T fake(Class<T> type, Map<String, Object> answers) {
+        return fake(type, answers, null);
+    }
+
+    /**
+     * Implements a TeamCity interface with fixed answers by method name, so that the replay doesn't depend on the
+     * exact API version. Other methods return default values.
+     */
+    private static <T> T fake(Class<T> type, final Map<String, Object> answers, final InvocationHandler listener) {
+        return type.cast(Proxy.newProxyInstance(GerritPollReplay.class.getClassLoader(), new Class[] { type },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if(listener != null) {
+                            listener.invoke(proxy, method, args);
+                        }
+
+                        if(answers.containsKey(method.getName())) {
+                            return answers.get(method.getName());
+                        }
+
+                        return getDefaultValue(method.getReturnType());
+                    }
+                }));
+    }
+
+    private static Object getDefaultValue(Class<?> type) {
+        if(type == boolean.class) {
+            return false;
+        }
+
+        if(type == int.class) {
+            return 0;
+        }
+
+        if(type == long.class) {
+            return 0L;
+        }
+
+        return null;
+    }
+
+    static class Result {
+        private int patchSets;
+        private int builds;
+        private long parseNanos;
+        private long triggerNanos;
+
+        int getPatchSets() {
+            return patchSets;
+        }
+
+        int getBuilds() {
+            return builds;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.saulis;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GerritPollReplayTests {
+
+    private static final String OUTPUT = "{\"project\":\"project\",\"branch\":\"master\",\"number\":\"2448\",\"lastUpdated\":1392802081,\"currentPatchSet\":{\"number\":\"7\",\"revision\":\"15b1316507acd69bc7398643ddfad68efd6ded67\",\"ref\":\"refs/changes/48/2448/7\",\"createdOn\":1390482249}}\n{\"type\":\"stats\",\"rowCount\":1}";
+
+    private Map<String, String> parameters;
+
+    @Before
+    public void setup() {
+        parameters = new HashMap<String, String>();
+        parameters.put(Parameters.HOST, "host.com");
+    }
+
+    private GerritPollReplay.Result replay(long timestamp) throws IOException {
+        GerritPollTrace trace = new GerritPollTrace("bt1/TRIGGER_1", "host.com", new Date(timestamp), parameters);
+        trace.addPage(OUTPUT.getBytes("UTF-8"));
+
+        return GerritPollReplay.replay(trace, null);
+    }
+
+    @Test
+    public void recordedPatchSetIsBuilt() throws IOException {
+        GerritPollReplay.Result result = replay(1000L);
+
+        assertThat(result.getPatchSets(), is(1));
+        assertThat(result.getBuilds(), is(1));
+    }
+
+    @Test
+    public void recordedTimestampIsUsed() throws IOException {
+        GerritPollReplay.Result result = replay(1390482249000L);
+
+        assertThat(result.getPatchSets(), is(0));
+        assertThat(result.getBuilds(), is(0));
+    }
+
+    @Test
+    public void recordedSettingsAreUsed() throws IOException {
+        parameters.put(Parameters.INCLUDE_PATHS, "src");
+
+        GerritPollReplay.Result result = replay(1000L);
+
+        assertThat(result.getBuilds(), is(0));
+    }
+}